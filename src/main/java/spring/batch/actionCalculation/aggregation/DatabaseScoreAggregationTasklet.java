@@ -0,0 +1,88 @@
+package spring.batch.actionCalculation.aggregation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import spring.batch.actionCalculation.exception.UnknownSessionActionTypeException;
+
+import javax.sql.DataSource;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.*;
+
+/**
+ * Computes the scores inside Postgres instead of shipping every session action to the JVM and back: the actions
+ * of every user are folded in id order by the session_action_score aggregate and applied to user_score with one
+ * set based statement. Existing scores are updated like the upsert does, so the id window of an incremental run
+ * works as well as a full run.
+ * <p>
+ * Session actions of unknown type are set aside in the dead-letter table up to the skip limit, like the chunk
+ * steps do. Everything runs in the step transaction, so a partition is applied completely or not at all and a
+ * restart simply runs it again.
+ */
+public class DatabaseScoreAggregationTasklet implements Tasklet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseScoreAggregationTasklet.class);
+
+    private static final String KNOWN_ACTION_TYPES = "action_type in ('" + PLUS_TYPE + "', '" + MULTI_TYPE + "')";
+
+    private static final String INSERT_DEAD_LETTERS_QUERY = "insert into " + SESSION_ACTION_DEAD_LETTER_TABLE_NAME +
+            " (id, user_id, action_type, amount, job_execution_id, step_name, reason) " +
+            "select id, user_id, action_type, amount, ?, ?, 'Unknown session action record type: ' || action_type " +
+            "from " + SESSION_ACTION_TABLE_NAME + " where not " + KNOWN_ACTION_TYPES + "%s";
+
+    // Users with a score are updated, the others inserted; both statements see user_score as it was before
+    private static final String APPLY_SCORES_QUERY = "with folded as (" +
+            "select user_id, " + SCORE_AGGREGATE_NAME + "(action_type, amount::double precision order by id) as score_update, count(*) as action_count " +
+            "from " + SESSION_ACTION_TABLE_NAME + " where " + KNOWN_ACTION_TYPES + "%s group by user_id" +
+            "), updated as (" +
+            "update " + USER_SCORE_TABLE_NAME + " set score = " + USER_SCORE_TABLE_NAME + ".score * folded.score_update[1] + folded.score_update[2] " +
+            "from folded where " + USER_SCORE_TABLE_NAME + ".user_id = folded.user_id returning " + USER_SCORE_TABLE_NAME + ".user_id" +
+            "), inserted as (" +
+            "insert into " + USER_SCORE_TABLE_NAME + " (user_id, score) " +
+            "select user_id, score_update[2] from folded where not exists (select 1 from updated where updated.user_id = folded.user_id) " +
+            "returning user_id" +
+            ") select (select coalesce(sum(action_count), 0) from folded) as action_count, " +
+            "(select count(*) from updated) as updated_count, (select count(*) from inserted) as inserted_count";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String whereClause;
+    private final int skipLimit;
+
+    /**
+     * @param whereClause optional filter of the session actions to apply, e.g. the partition and the id window; may be null
+     */
+    public DatabaseScoreAggregationTasklet(DataSource dataSource, String whereClause, int skipLimit) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.whereClause = whereClause == null ? "" : " and " + whereClause;
+        this.skipLimit = skipLimit;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+        StepExecution stepExecution = chunkContext.getStepContext().getStepExecution();
+        int deadLetterCount = jdbcTemplate.update(INSERT_DEAD_LETTERS_QUERY.formatted(whereClause),
+                stepExecution.getJobExecutionId(), stepExecution.getStepName());
+        if (deadLetterCount > skipLimit) {
+            // Rolls the dead letters back together with the step
+            throw new UnknownSessionActionTypeException(deadLetterCount + " session actions of unknown type exceed the skip limit of " + skipLimit);
+        }
+        for (int i = 0; i < deadLetterCount; i++) {
+            contribution.incrementProcessSkipCount();
+        }
+        if (deadLetterCount > 0) {
+            LOGGER.warn("Set {} session actions aside in {}", deadLetterCount, SESSION_ACTION_DEAD_LETTER_TABLE_NAME);
+        }
+
+        jdbcTemplate.query(APPLY_SCORES_QUERY.formatted(whereClause), rs -> {
+            contribution.incrementWriteCount(rs.getLong("action_count"));
+            LOGGER.info("Applied {} session actions in the database, updated {} and inserted {} user scores",
+                    rs.getLong("action_count"), rs.getLong("updated_count"), rs.getLong("inserted_count"));
+        });
+        return RepeatStatus.FINISHED;
+    }
+}
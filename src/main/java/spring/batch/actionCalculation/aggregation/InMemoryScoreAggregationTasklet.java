@@ -0,0 +1,246 @@
+package spring.batch.actionCalculation.aggregation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.repeat.RepeatStatus;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Folds all session actions into an in-memory update per user and writes user_score once at the end, which
+ * turns the job from write bound into read bound. Every user is kept as the update of its score since the last
+ * write, score * multiplier + addend, and written through the same upsert as every other job.
+ * <p>
+ * Every call reads the next checkpoint interval of session actions, so every step commit stores a consistent
+ * pair of the reader position and a snapshot file of the updates not yet written up to that position. A restart reloads that
+ * snapshot and continues after the saved position.
+ * <p>
+ * The primitive maps take about 27 bytes per user, twice that for a user with a multiplying action. Once they
+ * hold maxInMemoryUsers users, the updates are spilled: written to user_score in the step transaction of the
+ * current checkpoint and dropped, so the following actions of a user are folded into a new update applied on top.
+ * The heap therefore bounds maxInMemoryUsers rather than the number of users or session actions, and a data set
+ * that fits writes every user once.
+ */
+public class InMemoryScoreAggregationTasklet implements Tasklet, StepExecutionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryScoreAggregationTasklet.class);
+
+    private static final String SNAPSHOT_PATH_KEY = "inMemoryAggregation.snapshotPath";
+    private static final int FLUSH_CHUNK_SIZE = 10_000;
+
+    private final ItemStreamReader<SessionAction> sessionActionReader;
+    private final ItemProcessor<SessionAction, UserScoreUpdate> sessionActionProcessor;
+    private final ItemWriter<UserScoreUpdate> userScoreWriter;
+    private final Path snapshotDirectory;
+    private final int checkpointInterval;
+    private final int expectedUserCount;
+    private final int maxInMemoryUsers;
+
+    // The addend of every user, its score if user_score had no row for it
+    private LongDoubleHashMap scores;
+    // Only users whose multiplier is not 1
+    private LongDoubleHashMap multipliers;
+    private Path committedSnapshot;
+    private Path pendingSnapshot;
+
+    public InMemoryScoreAggregationTasklet(ItemStreamReader<SessionAction> sessionActionReader,
+                                           ItemProcessor<SessionAction, UserScoreUpdate> sessionActionProcessor,
+                                           ItemWriter<UserScoreUpdate> userScoreWriter,
+                                           Path snapshotDirectory,
+                                           int checkpointInterval,
+                                           int expectedUserCount,
+                                           int maxInMemoryUsers) {
+        this.sessionActionReader = sessionActionReader;
+        this.sessionActionProcessor = sessionActionProcessor;
+        this.userScoreWriter = userScoreWriter;
+        this.snapshotDirectory = snapshotDirectory;
+        this.checkpointInterval = checkpointInterval;
+        this.maxInMemoryUsers = Math.max(1, maxInMemoryUsers);
+        this.expectedUserCount = Math.min(expectedUserCount, this.maxInMemoryUsers);
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        ExecutionContext executionContext = stepExecution.getExecutionContext();
+        scores = new LongDoubleHashMap(expectedUserCount);
+        multipliers = new LongDoubleHashMap(16);
+        if (executionContext.containsKey(SNAPSHOT_PATH_KEY)) {
+            committedSnapshot = Path.of(executionContext.getString(SNAPSHOT_PATH_KEY));
+            loadSnapshot(committedSnapshot);
+            LOGGER.info("Restored scores of {} users from snapshot {}", scores.size(), committedSnapshot);
+        }
+        sessionActionReader.open(executionContext);
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        // The previous call returned, so its execution context together with its snapshot is committed
+        if (pendingSnapshot != null) {
+            deleteSnapshot(committedSnapshot);
+            committedSnapshot = pendingSnapshot;
+            pendingSnapshot = null;
+        }
+
+        int readCount = 0;
+        SessionAction sessionAction;
+        while (readCount < checkpointInterval && scores.size() < maxInMemoryUsers
+                && (sessionAction = sessionActionReader.read()) != null) {
+            UserScoreUpdate update = sessionActionProcessor.process(sessionAction);
+            long userId = update.userId();
+            scores.put(userId, scores.get(userId, 0d) * update.multiply() + update.add());
+            if (update.multiply() != 1d) {
+                multipliers.put(userId, multipliers.get(userId, 1d) * update.multiply());
+            }
+            contribution.incrementReadCount();
+            readCount++;
+        }
+
+        ExecutionContext executionContext = chunkContext.getStepContext().getStepExecution().getExecutionContext();
+        boolean spilling = scores.size() >= maxInMemoryUsers;
+        if (spilling) {
+            // Commits with the checkpoint below, a restart continues after the spilled actions
+            int spilledCount = flushScores();
+            contribution.incrementWriteCount(spilledCount);
+            scores.clear();
+            multipliers.clear();
+            LOGGER.info("Spilled updates of {} users to the user score table", spilledCount);
+        }
+        if (readCount == checkpointInterval || spilling) {
+            pendingSnapshot = writeSnapshot(chunkContext.getStepContext().getStepExecution().getId());
+            executionContext.putString(SNAPSHOT_PATH_KEY, pendingSnapshot.toString());
+            sessionActionReader.update(executionContext);
+            return RepeatStatus.CONTINUABLE;
+        }
+
+        int flushedCount = flushScores();
+        // Only the flush writes, one user_score row per user
+        contribution.incrementWriteCount(flushedCount);
+        sessionActionReader.update(executionContext);
+        LOGGER.info("Flushed scores of {} users to the user score table", flushedCount);
+        return RepeatStatus.FINISHED;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        sessionActionReader.close();
+        deleteSnapshot(pendingSnapshot);
+        // Unless the step completed, keep the committed snapshot for the restart
+        if (stepExecution.getStatus() == BatchStatus.COMPLETED) {
+            deleteSnapshot(committedSnapshot);
+        }
+        scores = null;
+        multipliers = null;
+        return stepExecution.getExitStatus();
+    }
+
+    /*
+    * Runs in the step transaction, so the whole flush is committed or rolled back at once. Returns the number of
+    * user rows written
+     */
+    private int flushScores() throws Exception {
+        List<UserScoreUpdate> updates = new ArrayList<>(FLUSH_CHUNK_SIZE);
+        List<Exception> failures = new ArrayList<>(1);
+        int[] flushedCount = new int[1];
+        scores.forEach((userId, score) -> {
+            updates.add(new UserScoreUpdate(userId, score, multipliers.get(userId, 1d)));
+            if (updates.size() == FLUSH_CHUNK_SIZE && failures.isEmpty()) {
+                flushedCount[0] += writeFlushChunk(updates, failures);
+            }
+        });
+        if (failures.isEmpty() && !updates.isEmpty()) {
+            flushedCount[0] += writeFlushChunk(updates, failures);
+        }
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        return flushedCount[0];
+    }
+
+    private int writeFlushChunk(List<UserScoreUpdate> updates, List<Exception> failures) {
+        int written = 0;
+        try {
+            userScoreWriter.write(new Chunk<>(updates));
+            written = updates.size();
+        } catch (Exception e) {
+            failures.add(e);
+        }
+        updates.clear();
+        return written;
+    }
+
+    private Path writeSnapshot(long stepExecutionId) {
+        Path snapshot = snapshotDirectory.resolve("score-snapshot-" + stepExecutionId + "-" + System.nanoTime() + ".bin");
+        Path temporarySnapshot = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(snapshotDirectory);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporarySnapshot), 1 << 16))) {
+                output.writeInt(scores.size());
+                scores.forEach((userId, score) -> {
+                    try {
+                        output.writeLong(userId);
+                        output.writeDouble(score);
+                        output.writeDouble(multipliers.get(userId, 1d));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            Files.move(temporarySnapshot, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            return snapshot;
+        } catch (IOException | UncheckedIOException e) {
+            throw new ItemStreamException("Failed to write score snapshot " + snapshot, e);
+        }
+    }
+
+    private void loadSnapshot(Path snapshot) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            int userCount = input.readInt();
+            for (int i = 0; i < userCount; i++) {
+                long userId = input.readLong();
+                scores.put(userId, input.readDouble());
+                double multiplier = input.readDouble();
+                if (multiplier != 1d) {
+                    multipliers.put(userId, multiplier);
+                }
+            }
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to restore score snapshot " + snapshot, e);
+        }
+    }
+
+    private static void deleteSnapshot(Path snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(snapshot);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to delete score snapshot {}", snapshot, e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package spring.batch.actionCalculation.aggregation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.*;
+
+/**
+ * Applies the partial updates the partitions of a file run left in user_score_partial: the partials of every user
+ * are composed in partition order, which is the order of the actions in the file, and applied to user_score like
+ * the upsert does. The partials are deleted in the same transaction, so a restart after a failure merges them again.
+ */
+public class PartialScoreMergeTasklet implements Tasklet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartialScoreMergeTasklet.class);
+
+    private static final String MERGE_PARTIALS_QUERY = "with composed as (" +
+            "select user_id, " + SCORE_UPDATE_AGGREGATE_NAME + "(multiplier, addend order by partition_index) as score_update " +
+            "from " + USER_SCORE_PARTIAL_TABLE_NAME + " where job_instance_id = ? group by user_id" +
+            "), updated as (" +
+            "update " + USER_SCORE_TABLE_NAME + " set score = " + USER_SCORE_TABLE_NAME + ".score * composed.score_update[1] + composed.score_update[2] " +
+            "from composed where " + USER_SCORE_TABLE_NAME + ".user_id = composed.user_id returning " + USER_SCORE_TABLE_NAME + ".user_id" +
+            "), inserted as (" +
+            "insert into " + USER_SCORE_TABLE_NAME + " (user_id, score) " +
+            "select user_id, score_update[2] from composed where not exists (select 1 from updated where updated.user_id = composed.user_id) " +
+            "returning user_id" +
+            ") select (select count(*) from updated) as updated_count, (select count(*) from inserted) as inserted_count";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long jobInstanceId;
+
+    public PartialScoreMergeTasklet(DataSource dataSource, long jobInstanceId) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jobInstanceId = jobInstanceId;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+        jdbcTemplate.query(MERGE_PARTIALS_QUERY, rs -> {
+            contribution.incrementWriteCount(rs.getLong("updated_count") + rs.getLong("inserted_count"));
+            LOGGER.info("Merged the partial scores of job instance {}, updated {} and inserted {} user scores",
+                    jobInstanceId, rs.getLong("updated_count"), rs.getLong("inserted_count"));
+        }, jobInstanceId);
+        jdbcTemplate.update("delete from " + USER_SCORE_PARTIAL_TABLE_NAME + " where job_instance_id = ?", jobInstanceId);
+        return RepeatStatus.FINISHED;
+    }
+}
@@ -0,0 +1,377 @@
+package spring.batch.actionCalculation.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_TABLE_NAME;
+
+/**
+ * Bounded read-through cache of user_score for the score lookups, so polling consumers do not compete with the
+ * batch writers for the database. The scores live in primitive open addressing tables split into segments with a
+ * lock each, about 24 bytes per entry; a full segment evicts with the clock algorithm, entries read since the
+ * hand last passed them get a second chance.
+ * <p>
+ * A completed full run replaces the whole cache with a generation warmed from the new user_score, built next to
+ * the current one and swapped in at once. While a full run rebuilds the table, and after one failed, the previous
+ * scores keep being served and misses are read from the table without being cached. An incremental run
+ * invalidates the users it touched. A miss is only cached when nothing was invalidated since it was read, so an
+ * older score never overwrites an invalidation.
+ * <p>
+ * The job listener only reaches the cache of the node that ran the job, so the cache also follows the job
+ * repository every node shares: at most once per check interval a lookup counts the ended job executions, and when
+ * more ended than this node ran, another node changed user_score and the cache is reloaded. Scores another node
+ * writes are served stale for at most the check interval after its job ended.
+ */
+public class UserScoreCache {
+
+    public static final String CACHE_COUNTER_NAME = "action.calculation.score.cache";
+    public static final String CACHE_SIZE_NAME = "action.calculation.score.cache.size";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserScoreCache.class);
+
+    private static final String SCORES_QUERY = "select user_id, score from " + USER_SCORE_TABLE_NAME + " where user_id = any(?)";
+    private static final String WARM_QUERY = "select user_id, score from " + USER_SCORE_TABLE_NAME + " limit ?";
+    // Every job writes user_score, so every ended execution may have changed it
+    private static final String ENDED_JOB_EXECUTIONS_QUERY = "select count(*) from BATCH_JOB_EXECUTION where END_TIME is not null";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate jobRepositoryJdbcTemplate;
+    private final long checkIntervalNanos;
+    private final int maxEntries;
+    private final int segmentCount;
+    private final Counter hits;
+    private final Counter misses;
+
+    // Changes on every invalidation, a miss read before a change is not cached
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicInteger rebuilds = new AtomicInteger();
+    private volatile boolean stale;
+    private volatile Segment[] segments;
+
+    private final AtomicLong nextCheck;
+    // Job executions ended on this node, their listener already updated the cache
+    private final AtomicLong localJobEnds = new AtomicLong();
+    // Guarded by the check, negative until the first one
+    private long endedJobExecutions = -1;
+    private long checkedLocalJobEnds;
+
+    /**
+     * @param jobRepositoryDataSource the job repository all nodes running jobs share
+     * @param segmentCount rounded up to a power of two
+     */
+    public UserScoreCache(DataSource dataSource, DataSource jobRepositoryDataSource, Duration checkInterval,
+                          MeterRegistry meterRegistry, int maxEntries, int segmentCount) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jobRepositoryJdbcTemplate = new JdbcTemplate(jobRepositoryDataSource);
+        this.checkIntervalNanos = checkInterval.toNanos();
+        this.nextCheck = new AtomicLong(System.nanoTime());
+        this.maxEntries = Math.max(1, maxEntries);
+        this.segmentCount = segmentCount <= 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+        this.segments = newSegments();
+        this.hits = Counter.builder(CACHE_COUNTER_NAME).tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder(CACHE_COUNTER_NAME).tag("result", "miss").register(meterRegistry);
+        Gauge.builder(CACHE_SIZE_NAME, this, UserScoreCache::size).register(meterRegistry);
+    }
+
+    /**
+     * @return null for a user without a score
+     */
+    public Double get(long userId) {
+        return getAll(new long[]{userId}).get(userId);
+    }
+
+    /**
+     * Scores of the given users in the given order, users without a score are left out
+     */
+    public Map<Long, Double> getAll(long[] userIds) {
+        checkJobRepository();
+        Segment[] current = segments;
+        Map<Long, Double> scores = new LinkedHashMap<>();
+        long[] missing = new long[userIds.length];
+        int missingCount = 0;
+        for (long userId : userIds) {
+            double score = segmentOf(current, userId).get(userId);
+            if (Double.isNaN(score)) {
+                missing[missingCount++] = userId;
+            }
+            scores.put(userId, score);
+        }
+        hits.increment(userIds.length - missingCount);
+        misses.increment(missingCount);
+        if (missingCount > 0) {
+            long readVersion = version.get();
+            boolean cacheable = rebuilds.get() == 0 && !stale;
+            Map<Long, Double> loaded = load(Arrays.copyOf(missing, missingCount));
+            for (int i = 0; i < missingCount; i++) {
+                Double score = loaded.get(missing[i]);
+                if (score == null) {
+                    scores.remove(missing[i]);
+                } else {
+                    scores.put(missing[i], score);
+                    if (cacheable) {
+                        segmentOf(current, missing[i]).putIfVersion(missing[i], score, version, readVersion);
+                    }
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * A full run starts to rebuild user_score
+     */
+    public void rebuildStarted() {
+        rebuilds.incrementAndGet();
+        version.incrementAndGet();
+    }
+
+    /**
+     * A full run ended, a completed one replaces the cached scores
+     */
+    public void rebuildEnded(boolean completed) {
+        try {
+            if (completed) {
+                reload();
+                stale = false;
+            } else {
+                // user_score is incomplete until the next full run completes
+                stale = true;
+            }
+        } finally {
+            rebuilds.decrementAndGet();
+        }
+    }
+
+    /**
+     * Warms a new generation with up to maxEntries scores and swaps it in
+     */
+    public void reload() {
+        Segment[] fresh = newSegments();
+        jdbcTemplate.query(WARM_QUERY, rs -> {
+            long userId = rs.getLong("user_id");
+            segmentOf(fresh, userId).put(userId, rs.getDouble("score"));
+        }, maxEntries);
+        version.incrementAndGet();
+        segments = fresh;
+        LOGGER.info("Warmed the score cache with {} scores", size());
+    }
+
+    /**
+     * A job ended on this node, after its listener updated the cache
+     */
+    public void jobEnded() {
+        localJobEnds.incrementAndGet();
+    }
+
+    public void invalidate(long[] userIds) {
+        version.incrementAndGet();
+        Segment[] current = segments;
+        for (long userId : userIds) {
+            segmentOf(current, userId).remove(userId);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /*
+    * A local end may reach the job repository only after the check counted it, then a job of another node is taken
+    * for it and the local end reloads the cache on the next check instead
+     */
+    private void checkJobRepository() {
+        long now = System.nanoTime();
+        long next = nextCheck.get();
+        if (now - next < 0 || !nextCheck.compareAndSet(next, now + checkIntervalNanos)) {
+            return;
+        }
+        boolean changedElsewhere;
+        synchronized (this) {
+            long ended = jobRepositoryJdbcTemplate.queryForObject(ENDED_JOB_EXECUTIONS_QUERY, Long.class);
+            long uncheckedLocalEnds = localJobEnds.get() - checkedLocalJobEnds;
+            long newlyEnded = ended - endedJobExecutions;
+            changedElsewhere = endedJobExecutions >= 0 && newlyEnded > uncheckedLocalEnds;
+            checkedLocalJobEnds += endedJobExecutions < 0 || changedElsewhere
+                    ? uncheckedLocalEnds
+                    : Math.max(0, newlyEnded);
+            endedJobExecutions = ended;
+        }
+        if (changedElsewhere) {
+            LOGGER.info("A job ended on another node, reloading the score cache");
+            reload();
+        }
+    }
+
+    private Map<Long, Double> load(long[] userIds) {
+        Map<Long, Double> scores = new LinkedHashMap<>();
+        jdbcTemplate.query(connection -> {
+            Array userIdArray = connection.createArrayOf("bigint", Arrays.stream(userIds).boxed().toArray());
+            PreparedStatement statement = connection.prepareStatement(SCORES_QUERY);
+            statement.setArray(1, userIdArray);
+            return statement;
+        }, (RowCallbackHandler) rs -> scores.put(rs.getLong("user_id"), rs.getDouble("score")));
+        return scores;
+    }
+
+    private Segment[] newSegments() {
+        Segment[] fresh = new Segment[segmentCount];
+        int segmentEntries = (maxEntries + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            fresh[i] = new Segment(segmentEntries);
+        }
+        return fresh;
+    }
+
+    private static Segment segmentOf(Segment[] segments, long userId) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        // The top bits of the hash pick the segment, the slot within it is picked by the bits below
+        return segments[(int) ((userId * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(segments.length)))];
+    }
+
+    /**
+     * Open addressing table of at most maxEntries entries with linear probing, removals shift the following
+     * entries back instead of leaving tombstones.
+     */
+    private static final class Segment {
+
+        private static final float LOAD_FACTOR = 0.75f;
+
+        private final int maxEntries;
+        private final long[] keys;
+        private final double[] values;
+        private final boolean[] used;
+        private final boolean[] referenced;
+        private final int mask;
+        private int size;
+        private int hand;
+
+        private Segment(int maxEntries) {
+            this.maxEntries = maxEntries;
+            int capacity = Integer.highestOneBit(Math.max(2, (int) Math.ceil(maxEntries / LOAD_FACTOR)) - 1) << 1;
+            keys = new long[capacity];
+            values = new double[capacity];
+            used = new boolean[capacity];
+            referenced = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * @return NaN when the key is not cached, scores are never NaN
+         */
+        private synchronized double get(long key) {
+            int slot = find(key);
+            if (slot < 0) {
+                return Double.NaN;
+            }
+            referenced[slot] = true;
+            return values[slot];
+        }
+
+        private synchronized void putIfVersion(long key, double value, AtomicLong version, long expectedVersion) {
+            // Checked under the lock an invalidation removes with, so the put either sees it or comes before it
+            if (version.get() == expectedVersion) {
+                put(key, value);
+            }
+        }
+
+        private synchronized void put(long key, double value) {
+            int slot = find(key);
+            if (slot >= 0) {
+                values[slot] = value;
+                return;
+            }
+            if (size >= maxEntries) {
+                evict();
+            }
+            slot = slotOf(key);
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            used[slot] = true;
+            referenced[slot] = false;
+            size++;
+        }
+
+        private synchronized void remove(long key) {
+            int slot = find(key);
+            if (slot >= 0) {
+                removeSlot(slot);
+            }
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private int find(long key) {
+            int slot = slotOf(key);
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void evict() {
+            while (true) {
+                hand = (hand + 1) & mask;
+                if (used[hand]) {
+                    if (!referenced[hand]) {
+                        removeSlot(hand);
+                        return;
+                    }
+                    referenced[hand] = false;
+                }
+            }
+        }
+
+        private void removeSlot(int slot) {
+            int free = slot;
+            used[free] = false;
+            int next = (free + 1) & mask;
+            while (used[next]) {
+                // An entry may move back to the free slot unless that slot lies before its home slot
+                int home = slotOf(keys[next]);
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    keys[free] = keys[next];
+                    values[free] = values[next];
+                    referenced[free] = referenced[next];
+                    used[free] = true;
+                    used[next] = false;
+                    free = next;
+                }
+                next = (next + 1) & mask;
+            }
+            size--;
+        }
+
+        private int slotOf(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+}
@@ -2,41 +2,86 @@ package spring.batch.actionCalculation.config;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.batch.core.ChunkListener;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecutionListener;
 import org.springframework.batch.core.Step;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.BatchObservabilityBeanPostProcessor;
 import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.job.builder.JobBuilder;
-import org.springframework.batch.core.launch.JobLauncher;
-import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.partition.support.Partitioner;
 import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.step.builder.FaultTolerantStepBuilder;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
 import org.springframework.batch.core.step.builder.StepBuilder;
 import org.springframework.batch.item.*;
-import org.springframework.batch.item.database.JdbcBatchItemWriter;
+import org.springframework.batch.item.database.JdbcPagingItemReader;
 import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
 import org.springframework.batch.item.database.builder.JdbcPagingItemReaderBuilder;
 import org.springframework.batch.item.database.support.PostgresPagingQueryProvider;
-import org.springframework.batch.item.support.SynchronizedItemStreamWriter;
 import org.springframework.batch.item.support.builder.SynchronizedItemStreamReaderBuilder;
-import org.springframework.batch.item.support.builder.SynchronizedItemStreamWriterBuilder;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
 import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.retry.backoff.ExponentialRandomBackOffPolicy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.transaction.PlatformTransactionManager;
-import spring.batch.actionCalculation.adaptor.JdbcBatchItemStreamWriterAdapter;
+import spring.batch.actionCalculation.aggregation.DatabaseScoreAggregationTasklet;
+import spring.batch.actionCalculation.aggregation.InMemoryScoreAggregationTasklet;
+import spring.batch.actionCalculation.aggregation.PartialScoreMergeTasklet;
+import spring.batch.actionCalculation.cache.UserScoreCache;
+import spring.batch.actionCalculation.config.ConnectionPoolSizer.Workers;
 import spring.batch.actionCalculation.constants.CommonConstants;
+import spring.batch.actionCalculation.exception.UnknownSessionActionTypeException;
+import spring.batch.actionCalculation.listener.ChunkTimingListener;
+import spring.batch.actionCalculation.listener.DeadLetterSkipListener;
+import spring.batch.actionCalculation.listener.HighWaterMarkListener;
+import spring.batch.actionCalculation.listener.StepMetricsListener;
+import spring.batch.actionCalculation.listener.TablePreparationListener;
+import spring.batch.actionCalculation.listener.UserScoreCacheListener;
+import spring.batch.actionCalculation.model.ActionType;
 import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.SessionActionBlock;
+import spring.batch.actionCalculation.model.SessionActionFileFormat;
 import spring.batch.actionCalculation.model.UserScoreUpdate;
+import spring.batch.actionCalculation.model.UserScoreUpdateBlock;
+import spring.batch.actionCalculation.model.UserSessionActions;
+import spring.batch.actionCalculation.partitioner.HotUserSessionActionPartitioner;
+import spring.batch.actionCalculation.partitioner.SessionActionFilePartitioner;
 import spring.batch.actionCalculation.partitioner.SessionActionPartitioner;
+import spring.batch.actionCalculation.policy.AdaptiveChunkSizePolicy;
+import spring.batch.actionCalculation.policy.TransientDataAccessRetryPolicy;
+import spring.batch.actionCalculation.reader.PrefetchingCursorItemReader;
+import spring.batch.actionCalculation.reader.SessionActionBlockCursorItemReader;
+import spring.batch.actionCalculation.reader.SessionActionBinaryFileItemReader;
+import spring.batch.actionCalculation.reader.SessionActionCursorItemReader;
+import spring.batch.actionCalculation.reader.SessionActionCsvFileItemReader;
+import spring.batch.actionCalculation.reader.SessionActionGroupingItemReader;
+import spring.batch.actionCalculation.repository.CoalescingJobRepository;
+import spring.batch.actionCalculation.scheduler.JobSubmissionScheduler;
+import spring.batch.actionCalculation.utils.SourceDatabaseUtils;
+import spring.batch.actionCalculation.writer.UserLaneDispatchingWriter;
+import spring.batch.actionCalculation.writer.UserScorePartialWriter;
+import spring.batch.actionCalculation.writer.UserScoreUpdateBlockWriter;
+import spring.batch.actionCalculation.writer.UserScoreUpdateCopyWriter;
+import spring.batch.actionCalculation.writer.UserScoreUpdateFoldingWriter;
 
 import javax.sql.DataSource;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadFactory;
 
 @Configuration
 @Import(DataSourceConfig.class)
@@ -44,15 +89,58 @@ public class ActionCalculationConfig {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ActionCalculationConfig.class);
 
+    private static final int MULTI_THREAD_STEP_THREADS = 3;
+
+    @Value("${batch.virtual-threads.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${batch.worker-concurrency:8}")
+    private int workerConcurrency;
+
+    @Value("${batch.scheduler.max-queued-jobs:16}")
+    private int schedulerMaxQueuedJobs;
+
+    @Value("${score-cache.max-entries:1000000}")
+    private int scoreCacheMaxEntries;
+
+    @Value("${score-cache.segments:16}")
+    private int scoreCacheSegments;
+
+    @Value("${score-cache.check-interval-millis:5000}")
+    private long scoreCacheCheckIntervalMillis;
+
+    @Value("${batch.fault-tolerance.skip-limit:100}")
+    private int skipLimit;
+
+    @Value("${batch.fault-tolerance.retry.max-attempts:5}")
+    private int retryMaxAttempts;
+
+    @Value("${batch.fault-tolerance.retry.initial-interval-millis:50}")
+    private long retryInitialIntervalMillis;
+
+    @Value("${batch.fault-tolerance.retry.multiplier:2.0}")
+    private double retryMultiplier;
+
+    @Value("${batch.fault-tolerance.retry.max-interval-millis:2000}")
+    private long retryMaxIntervalMillis;
+
     /*
     * Partitioned Local Job
      */
     @Bean("partitionedLocalActionCalculationJob")
     public Job partitionedLocalActionCalculationJob(
             JobRepository jobRepository,
-            @Qualifier("partitionedLocalActionCalculationStep") Step partitionedLocalActionCalculationStep
+            @Qualifier("partitionedLocalActionCalculationStep") Step partitionedLocalActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
     ){
         return new JobBuilder("partitionedLocalActionCalculationJob", jobRepository)
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> Workers.readingAndWriting(partitionedStepWorkers())))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .listener(deadLetterTableListener)
                 .start(partitionedLocalActionCalculationStep)
                 .build();
     }
@@ -64,86 +152,753 @@ public class ActionCalculationConfig {
     @Bean("multiThreadedActionCalculationJob")
     public Job multiThreadedActionCalculationJob(
             JobRepository jobRepository,
-            @Qualifier("multiThreadedActionCalculationStep") Step multiThreadedActionCalculationStep
+            @Qualifier("multiThreadedActionCalculationStep") Step multiThreadedActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
     ){
         return new JobBuilder("multiThreadedActionCalculationJob", jobRepository)
+                // The threads share one reader
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> new Workers(1, multiThreadedStepWorkers())))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .listener(deadLetterTableListener)
                 .start(multiThreadedActionCalculationStep)
                 .build();
     }
 
 
 
+    /*
+    * Lane dispatched job
+     */
+    @Bean("laneDispatchedActionCalculationJob")
+    public Job laneDispatchedActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("laneDispatchedActionCalculationStep") Step laneDispatchedActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager postgresTransactionManager,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("laneDispatchedActionCalculationJob", jobRepository)
+                // The lanes write next to the step transaction
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> new Workers(1, laneCount(jobParameters.getString("laneCount")) + 1)))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .listener(new TablePreparationListener(postgresDataSource, postgresTransactionManager, SourceDatabaseUtils::createUserScoreLaneMarkTable))
+                .start(laneDispatchedActionCalculationStep)
+                .build();
+    }
+
+
+    /*
+    * In-memory aggregation job
+     */
+    @Bean("inMemoryActionCalculationJob")
+    public Job inMemoryActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("inMemoryActionCalculationStep") Step inMemoryActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("inMemoryActionCalculationJob", jobRepository)
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> Workers.readingAndWriting(1)))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .start(inMemoryActionCalculationStep)
+                .build();
+    }
+
+
     /*
     * Single threaded job
      */
     @Bean("simpleActionCalculationJob")
     public Job simpleActionCalculationJob(
             JobRepository jobRepository,
-            @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep
+            @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
     ){
         return  new JobBuilder("simpleActionCalculationJob", jobRepository)
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> Workers.readingAndWriting(1)))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .listener(deadLetterTableListener)
                 .start(simpleActionCalculationStep)
                 .build();
     }
 
 
+    /*
+    * Columnar job, session actions travel in primitive blocks instead of one object per row
+     */
+    @Bean("columnarActionCalculationJob")
+    public Job columnarActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("columnarActionCalculationStep") Step columnarActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("columnarActionCalculationJob", jobRepository)
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> Workers.readingAndWriting(1)))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .start(columnarActionCalculationStep)
+                .build();
+    }
+
+
+    /*
+    * Grouped job, whole users are processed and written in parallel
+     */
+    @Bean("groupedActionCalculationJob")
+    public Job groupedActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("groupedActionCalculationStep") Step groupedActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("groupedActionCalculationJob", jobRepository)
+                // The threads share one reader
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> new Workers(1, workerConcurrencyLimit())))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                // Chunks commit out of order, a failed run is rerun from an empty user_score
+                .preventRestart()
+                .start(groupedActionCalculationStep)
+                .build();
+    }
+
+
+    /*
+    * Database job, the scores are computed inside Postgres per partition
+     */
+    @Bean("databaseActionCalculationJob")
+    public Job databaseActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("databasePartitionedActionCalculationStep") Step databasePartitionedActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager postgresTransactionManager,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("databaseActionCalculationJob", jobRepository)
+                // Every partition reads and writes in one statement on the write pool
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> new Workers(0, partitionedStepWorkers())))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .listener(deadLetterTableListener)
+                // Installed once before the partitions start, replacing it while they run would make them wait on each other
+                .listener(new TablePreparationListener(postgresDataSource, postgresTransactionManager, SourceDatabaseUtils::createScoreAggregate))
+                .start(databasePartitionedActionCalculationStep)
+                .build();
+    }
+
+
+    /*
+    * Hot user job, the actions of users too large for one partition are split by id over several partitions
+     */
+    @Bean("hotUserPartitionedActionCalculationJob")
+    public Job hotUserPartitionedActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("hotUserPartitionedActionCalculationStep") Step hotUserPartitionedActionCalculationStep,
+            @Qualifier("mergePartialScoresStep") Step mergePartialScoresStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("partialScoreTablesListener") JobExecutionListener partialScoreTablesListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("hotUserPartitionedActionCalculationJob", jobRepository)
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> Workers.readingAndWriting(partitionedStepWorkers())))
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .listener(deadLetterTableListener)
+                .listener(partialScoreTablesListener)
+                .start(hotUserPartitionedActionCalculationStep)
+                // Composes the slices of every hot user in id order
+                .next(mergePartialScoresStep)
+                .build();
+    }
+
+
+    /*
+    * File job, reads an export file in byte range partitions and merges their partial scores in file order
+     */
+    @Bean("fileActionCalculationJob")
+    public Job fileActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("filePartitionedActionCalculationStep") Step filePartitionedActionCalculationStep,
+            @Qualifier("mergePartialScoresStep") Step mergePartialScoresStep,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("partialScoreTablesListener") JobExecutionListener partialScoreTablesListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("fileActionCalculationJob", jobRepository)
+                // The partitions read the file, only their writers need connections
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> new Workers(0, partitionedStepWorkers())))
+                .listener(userScoreCacheListener)
+                .listener(deadLetterTableListener)
+                .listener(partialScoreTablesListener)
+                .start(filePartitionedActionCalculationStep)
+                .next(mergePartialScoresStep)
+                .build();
+    }
+
+
+    /*
+    * Incremental job, applies the session actions added since the last run on top of the existing scores
+     */
+    @Bean("incrementalActionCalculationJob")
+    public Job incrementalActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("partitionedLocalActionCalculationStep") Step partitionedLocalActionCalculationStep,
+            @Qualifier("incrementalHighWaterMarkListener") JobExecutionListener incrementalHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("connectionPoolSizer") ConnectionPoolSizer connectionPoolSizer
+    ){
+        return new JobBuilder("incrementalActionCalculationJob", jobRepository)
+                .listener(connectionPoolSizer.sizingListener(jobParameters -> Workers.readingAndWriting(partitionedStepWorkers())))
+                .listener(incrementalHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                .listener(deadLetterTableListener)
+                // Partitions only split the new rows, a restart reruns just the partitions that failed
+                .start(partitionedLocalActionCalculationStep)
+                .build();
+    }
+
+    @Bean("fullRunHighWaterMarkListener")
+    public JobExecutionListener fullRunHighWaterMarkListener(
+            JobExplorer jobExplorer,
+            JobRepository jobRepository,
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource
+    ){
+        return new HighWaterMarkListener(jobExplorer, jobRepository, postgresReadDataSource, false);
+    }
+
+    @Bean("userScoreCacheListener")
+    public JobExecutionListener userScoreCacheListener(
+            @Qualifier("userScoreCache") UserScoreCache userScoreCache,
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource
+    ){
+        return new UserScoreCacheListener(userScoreCache, postgresReadDataSource);
+    }
+
+    /*
+    * Serves the score lookups, filled from user_score through the read pool and checked against the job repository
+    * for jobs of other nodes
+     */
+    @Bean("userScoreCache")
+    public UserScoreCache userScoreCache(
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Qualifier("dataSource") DataSource dataSource,
+            MeterRegistry meterRegistry
+    ){
+        return new UserScoreCache(postgresReadDataSource, dataSource, Duration.ofMillis(scoreCacheCheckIntervalMillis),
+                meterRegistry, scoreCacheMaxEntries, scoreCacheSegments);
+    }
+
+    @Bean("incrementalHighWaterMarkListener")
+    public JobExecutionListener incrementalHighWaterMarkListener(
+            JobExplorer jobExplorer,
+            JobRepository jobRepository,
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource
+    ){
+        return new HighWaterMarkListener(jobExplorer, jobRepository, postgresReadDataSource, true);
+    }
+
+
     @Bean("partitionedLocalActionCalculationStep")
     public Step partitionedLocalActionCalculationStep(
             JobRepository jobRepository,
-            @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep
+            @Qualifier("simpleActionCalculationStep") Step simpleActionCalculationStep,
+            @Qualifier("sessionActionPartitioner") Partitioner sessionActionPartitioner,
+            @Qualifier("partitionStepExecutor") TaskExecutor partitionStepExecutor,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener
     ){
         return new StepBuilder("partitionedLocalActionCalculationStep", jobRepository)
-                .partitioner("simpleActionCalculationStep", new SessionActionPartitioner())
-                .taskExecutor(new SimpleAsyncTaskExecutor())
+                .partitioner("simpleActionCalculationStep", sessionActionPartitioner)
+                // Records the skew between the partitions once all of them finished
+                .listener(stepMetricsListener)
+                .taskExecutor(partitionStepExecutor)
                 .step(simpleActionCalculationStep)
-                .gridSize(3)
+                // Upper bound only, the partitioner lowers it when there is not enough data to split
+                .gridSize(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    @Bean("databasePartitionedActionCalculationStep")
+    public Step databasePartitionedActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("databaseActionCalculationStep") Step databaseActionCalculationStep,
+            @Qualifier("sessionActionPartitioner") Partitioner sessionActionPartitioner,
+            @Qualifier("partitionStepExecutor") TaskExecutor partitionStepExecutor,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener
+    ){
+        return new StepBuilder("databasePartitionedActionCalculationStep", jobRepository)
+                .partitioner("databaseActionCalculationStep", sessionActionPartitioner)
+                .listener(stepMetricsListener)
+                .taskExecutor(partitionStepExecutor)
+                .step(databaseActionCalculationStep)
+                // Every partition is one statement on one connection, more partitions than cores only queue up
+                .gridSize(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    @Bean("databaseActionCalculationStep")
+    public Step databaseActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("databaseScoreAggregationTasklet") DatabaseScoreAggregationTasklet databaseScoreAggregationTasklet,
+            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener
+    ){
+        return new StepBuilder("databaseActionCalculationStep", jobRepository)
+                .tasklet(databaseScoreAggregationTasklet, transactionManager)
+                .listener(beforeStepLoggerListener)
+                .listener(stepMetricsListener)
+                .build();
+    }
+
+    @Bean("databaseScoreAggregationTasklet")
+    @StepScope
+    public DatabaseScoreAggregationTasklet databaseScoreAggregationTasklet(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Value("#{stepExecutionContext['minUserId']}") Long minUserId,
+            @Value("#{stepExecutionContext['maxUserId']}") Long maxUserId,
+            @Value("#{jobExecutionContext['fromId']}") Long fromId,
+            @Value("#{jobExecutionContext['toId']}") Long toId
+    ){
+        return new DatabaseScoreAggregationTasklet(postgresDataSource,
+                sessionActionWhereClause(minUserId, maxUserId, fromId, toId), skipLimit);
+    }
+
+    @Bean("hotUserPartitionedActionCalculationStep")
+    public Step hotUserPartitionedActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("partialActionCalculationStep") Step partialActionCalculationStep,
+            @Qualifier("hotUserSessionActionPartitioner") Partitioner hotUserSessionActionPartitioner,
+            @Qualifier("partitionStepExecutor") TaskExecutor partitionStepExecutor,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener
+    ){
+        // The job's partialScoreTablesListener creates the partial table
+        return new StepBuilder("hotUserPartitionedActionCalculationStep", jobRepository)
+                .partitioner("partialActionCalculationStep", hotUserSessionActionPartitioner)
+                .listener(stepMetricsListener)
+                .taskExecutor(partitionStepExecutor)
+                .step(partialActionCalculationStep)
+                .gridSize(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    @Bean("partialActionCalculationStep")
+    public Step partialActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader,
+            @Qualifier("userScorePartialWriter") ItemWriter<UserScoreUpdate> userScorePartialWriter,
+            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener,
+            @Qualifier("chunkTimingListener") ChunkListener chunkTimingListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener,
+            @Qualifier("adaptiveChunkSizePolicy") AdaptiveChunkSizePolicy adaptiveChunkSizePolicy,
+            @Qualifier("deadLetterSkipListener") DeadLetterSkipListener deadLetterSkipListener
+    ){
+        return faultTolerant(new StepBuilder("partialActionCalculationStep", jobRepository)
+                .<SessionAction, UserScoreUpdate>chunk(adaptiveChunkSizePolicy, transactionManager)
+                .reader(sessionActionReader)
+                .processor(getSessionActionProcessor())
+                .writer(userScorePartialWriter)
+                .listener(chunkTimingListener)
+                // Measures the chunks the policy sizes
+                .listener((ChunkListener) adaptiveChunkSizePolicy), deadLetterSkipListener)
+                .listener(beforeStepLoggerListener)
+                .listener(stepMetricsListener)
+                .build();
+    }
+
+    @Bean("hotUserSessionActionPartitioner")
+    @StepScope
+    public Partitioner hotUserSessionActionPartitioner(
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Value("#{jobExecutionContext['fromId']}") Long fromId,
+            @Value("#{jobExecutionContext['toId']}") Long toId
+    ){
+        return new HotUserSessionActionPartitioner(postgresReadDataSource, CommonConstants.MIN_ROWS_PER_PARTITION,
+                idWindowWhereClause(fromId, toId));
+    }
+
+    @Bean("filePartitionedActionCalculationStep")
+    public Step filePartitionedActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("fileActionCalculationStep") Step fileActionCalculationStep,
+            @Qualifier("sessionActionFilePartitioner") Partitioner sessionActionFilePartitioner,
+            @Qualifier("partitionStepExecutor") TaskExecutor partitionStepExecutor,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener
+    ){
+        return new StepBuilder("filePartitionedActionCalculationStep", jobRepository)
+                .partitioner("fileActionCalculationStep", sessionActionFilePartitioner)
+                .listener(stepMetricsListener)
+                .taskExecutor(partitionStepExecutor)
+                .step(fileActionCalculationStep)
+                .gridSize(Runtime.getRuntime().availableProcessors())
+                .build();
+    }
+
+    @Bean("fileActionCalculationStep")
+    public Step fileActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("sessionActionFileReader") ItemStreamReader<SessionAction> sessionActionFileReader,
+            @Qualifier("userScorePartialWriter") ItemWriter<UserScoreUpdate> userScorePartialWriter,
+            @Qualifier("chunkTimingListener") ChunkListener chunkTimingListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener,
+            @Qualifier("adaptiveChunkSizePolicy") AdaptiveChunkSizePolicy adaptiveChunkSizePolicy,
+            @Qualifier("deadLetterSkipListener") DeadLetterSkipListener deadLetterSkipListener
+    ){
+        return faultTolerant(new StepBuilder("fileActionCalculationStep", jobRepository)
+                .<SessionAction, UserScoreUpdate>chunk(adaptiveChunkSizePolicy, transactionManager)
+                .reader(sessionActionFileReader)
+                .processor(getSessionActionProcessor())
+                // The actions of a user can span partitions, so every partition only folds its own share
+                .writer(userScorePartialWriter)
+                .listener(chunkTimingListener)
+                // Measures the chunks the policy sizes
+                .listener((ChunkListener) adaptiveChunkSizePolicy), deadLetterSkipListener)
+                .listener(stepMetricsListener)
+                .build();
+    }
+
+    @Bean("mergePartialScoresStep")
+    public Step mergePartialScoresStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("partialScoreMergeTasklet") PartialScoreMergeTasklet partialScoreMergeTasklet
+    ){
+        return new StepBuilder("mergePartialScoresStep", jobRepository)
+                .tasklet(partialScoreMergeTasklet, transactionManager)
                 .build();
     }
 
+    @Bean("partialScoreMergeTasklet")
+    @StepScope
+    public PartialScoreMergeTasklet partialScoreMergeTasklet(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Value("#{stepExecution.jobExecution.jobInstance.id}") Long jobInstanceId
+    ){
+        return new PartialScoreMergeTasklet(postgresDataSource, jobInstanceId);
+    }
+
+    @Bean("sessionActionFilePartitioner")
+    @StepScope
+    public Partitioner sessionActionFilePartitioner(
+            @Value("#{jobParameters['inputFile']}") String inputFile,
+            @Value("#{jobParameters['inputFormat'] ?: 'csv'}") String inputFormat,
+            @Value("#{jobParameters['minPartitionBytes'] ?: T(spring.batch.actionCalculation.constants.CommonConstants).MIN_BYTES_PER_FILE_PARTITION}") Long minPartitionBytes
+    ){
+        return new SessionActionFilePartitioner(Path.of(inputFile), SessionActionFileFormat.of(inputFormat), minPartitionBytes);
+    }
+
+    @Bean("sessionActionFileReader")
+    @StepScope
+    public ItemStreamReader<SessionAction> sessionActionFileReader(
+            @Value("#{jobParameters['inputFile']}") String inputFile,
+            @Value("#{jobParameters['inputFormat'] ?: 'csv'}") String inputFormat,
+            @Value("#{stepExecutionContext['fileStartOffset'] ?: 0L}") Long fileStartOffset,
+            @Value("#{stepExecutionContext['fileEndOffset'] ?: T(java.lang.Long).MAX_VALUE}") Long fileEndOffset
+    ){
+        Path file = Path.of(inputFile);
+        return switch (SessionActionFileFormat.of(inputFormat)) {
+            case CSV -> new SessionActionCsvFileItemReader(file, fileStartOffset, fileEndOffset);
+            case BINARY -> new SessionActionBinaryFileItemReader(file, fileStartOffset, fileEndOffset);
+        };
+    }
+
+    @Bean("userScorePartialWriter")
+    @StepScope
+    public ItemWriter<UserScoreUpdate> userScorePartialWriter(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Value("#{stepExecution.jobExecution.jobInstance.id}") Long jobInstanceId,
+            @Value("#{stepExecutionContext['partitionIndex'] ?: 0}") Integer partitionIndex
+    ){
+        return new UserScorePartialWriter(postgresDataSource, jobInstanceId, partitionIndex);
+    }
+
+    @Bean("sessionActionPartitioner")
+    @StepScope // partitioner is step scoped to split only the id window of the run
+    public Partitioner sessionActionPartitioner(
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Value("#{jobExecutionContext['fromId']}") Long fromId,
+            @Value("#{jobExecutionContext['toId']}") Long toId
+    ){
+        return new SessionActionPartitioner(postgresReadDataSource, CommonConstants.MIN_ROWS_PER_PARTITION,
+                idWindowWhereClause(fromId, toId));
+    }
+
 
     @Bean("multiThreadedActionCalculationStep")
     public Step multiThreadedActionCalculationStep(
             JobRepository jobRepository,
             @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
             @Qualifier("synchronizedSessionActionReader") ItemStreamReader<SessionAction> synchronizedSessionActionReader,
-            @Qualifier("synchronizedUserScoreUpdateWriter") SynchronizedItemStreamWriter<UserScoreUpdate> synchronizedUserScoreUpdateWriter,
+            @Qualifier("foldingUserScoreUpdateWriter") ItemStreamWriter<UserScoreUpdate> foldingUserScoreUpdateWriter,
             @Qualifier("multiThreadStepExecutor") TaskExecutor multiThreadStepExecutor,
-            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener
+            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener,
+            @Qualifier("chunkTimingListener") ChunkListener chunkTimingListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener,
+            @Qualifier("adaptiveChunkSizePolicy") AdaptiveChunkSizePolicy adaptiveChunkSizePolicy,
+            @Qualifier("deadLetterSkipListener") DeadLetterSkipListener deadLetterSkipListener
 
     ){
-        return new StepBuilder("multiThreadedActionCalculationStep", jobRepository)
-                .<SessionAction, UserScoreUpdate>chunk(5, transactionManager)
-                // Read in pages of size 5 using synchronized reader
-                // to mitigate thread safety problems while using shared reader between threads
+        return faultTolerant(new StepBuilder("multiThreadedActionCalculationStep", jobRepository)
+                .<SessionAction, UserScoreUpdate>chunk(adaptiveChunkSizePolicy, transactionManager)
+                // Threads share one reader, synchronized so each item is read once; the chunk size comes from the policy
                 .reader(synchronizedSessionActionReader)
                 // Convert items into user score update objects used to update with (score = score * a + b) idea
                 .processor(getSessionActionProcessor())
                 // Write into the database using the upsert capabilities;
-                // Using synchronized writer to avoid deadlock issues with Postgres.
-                .writer(synchronizedUserScoreUpdateWriter)
+                // threads writing the same users can deadlock, the chunk that lost is retried.
+                .writer(foldingUserScoreUpdateWriter)
+                .listener(chunkTimingListener)
+                // Measures the chunks the policy sizes
+                .listener((ChunkListener) adaptiveChunkSizePolicy), deadLetterSkipListener)
                 .listener(beforeStepLoggerListener)
+                .listener(stepMetricsListener)
                 .taskExecutor(multiThreadStepExecutor)
                 .build();
     }
 
 
+    @Bean("columnarActionCalculationStep")
+    public Step columnarActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("sessionActionBlockReader") ItemStreamReader<SessionActionBlock> sessionActionBlockReader,
+            @Qualifier("userScoreUpdateBlockWriter") ItemWriter<UserScoreUpdateBlock> userScoreUpdateBlockWriter,
+            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener,
+            @Qualifier("chunkTimingListener") ChunkListener chunkTimingListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener,
+            @Qualifier("adaptiveChunkSizePolicy") AdaptiveChunkSizePolicy adaptiveChunkSizePolicy
+    ){
+        return new StepBuilder("columnarActionCalculationStep", jobRepository)
+                // Items are blocks, so the chunk size bounds count blocks as well
+                .<SessionActionBlock, UserScoreUpdateBlock>chunk(adaptiveChunkSizePolicy, transactionManager)
+                .reader(sessionActionBlockReader)
+                // Folds every block into one update per user
+                .processor(getSessionActionBlockProcessor())
+                .writer(userScoreUpdateBlockWriter)
+                .listener(beforeStepLoggerListener)
+                .listener(chunkTimingListener)
+                .listener(stepMetricsListener)
+                // Measures the chunks the policy sizes
+                .listener((ChunkListener) adaptiveChunkSizePolicy)
+                .build();
+    }
+
+
+    @Bean("groupedActionCalculationStep")
+    @SuppressWarnings("removal") // throttleLimit has no replacement in Spring Batch 5 yet
+    public Step groupedActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("userSessionActionsReader") ItemStreamReader<UserSessionActions> userSessionActionsReader,
+            @Qualifier("foldingUserScoreUpdateWriter") ItemStreamWriter<UserScoreUpdate> foldingUserScoreUpdateWriter,
+            @Qualifier("groupedStepExecutor") TaskExecutor groupedStepExecutor,
+            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener,
+            @Qualifier("chunkTimingListener") ChunkListener chunkTimingListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener,
+            @Qualifier("adaptiveChunkSizePolicy") AdaptiveChunkSizePolicy adaptiveChunkSizePolicy
+    ){
+        return new StepBuilder("groupedActionCalculationStep", jobRepository)
+                .<UserSessionActions, UserScoreUpdate>chunk(adaptiveChunkSizePolicy, transactionManager)
+                // Every item holds all actions of one user, so no two chunks touch the same user
+                .reader(userSessionActionsReader)
+                .processor(getUserSessionActionsProcessor())
+                // One update per user, the writer needs no synchronization
+                .writer(foldingUserScoreUpdateWriter)
+                .listener(beforeStepLoggerListener)
+                .listener(chunkTimingListener)
+                .listener(stepMetricsListener)
+                // Measures the chunks the policy sizes
+                .listener((ChunkListener) adaptiveChunkSizePolicy)
+                .taskExecutor(groupedStepExecutor)
+                // The default limit of 4 concurrent chunks would cap the scaling below the worker concurrency
+                .throttleLimit(workerConcurrencyLimit())
+                .build();
+    }
+
+
+    @Bean("laneDispatchedActionCalculationStep")
+    public Step laneDispatchedActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader,
+            @Qualifier("userLaneDispatchingWriter") ItemStreamWriter<SessionAction> userLaneDispatchingWriter,
+            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener,
+            @Qualifier("chunkTimingListener") ChunkListener chunkTimingListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener,
+            @Qualifier("adaptiveChunkSizePolicy") AdaptiveChunkSizePolicy adaptiveChunkSizePolicy
+    ){
+        // Not fault tolerant: the lanes commit outside the chunk transaction, so neither a retried chunk nor a dead
+        // letter inserted with the chunk commit would line up with what the lanes already wrote
+        return new StepBuilder("laneDispatchedActionCalculationStep", jobRepository)
+                .<SessionAction, SessionAction>chunk(adaptiveChunkSizePolicy, transactionManager)
+                // Reading stays on the step thread, so items reach the writer in id order without synchronization
+                .reader(sessionActionReader)
+                // Every user is owned by one lane, lanes write disjoint users concurrently and skip what they
+                // applied before a restart, so the writer needs the session action ids and converts them itself
+                .writer(userLaneDispatchingWriter)
+                .listener(chunkTimingListener)
+                // Measures the chunks the policy sizes
+                .listener((ChunkListener) adaptiveChunkSizePolicy)
+                .listener(beforeStepLoggerListener)
+                .listener(stepMetricsListener)
+                .build();
+    }
+
+
+    @Bean("inMemoryActionCalculationStep")
+    public Step inMemoryActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
+            @Qualifier("inMemoryScoreAggregationTasklet") InMemoryScoreAggregationTasklet inMemoryScoreAggregationTasklet,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener
+    ){
+        // The tasklet registers itself as step listener to restore its snapshot
+        return new StepBuilder("inMemoryActionCalculationStep", jobRepository)
+                .tasklet(inMemoryScoreAggregationTasklet, transactionManager)
+                .listener(stepMetricsListener)
+                .build();
+    }
+
+    @Bean("inMemoryScoreAggregationTasklet")
+    @StepScope
+    public InMemoryScoreAggregationTasklet inMemoryScoreAggregationTasklet(
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Qualifier("userScoreUpdateCopyWriter") ItemWriter<UserScoreUpdate> userScoreUpdateCopyWriter,
+            @Value("#{jobParameters['fetchSize'] ?: 1000}") Integer fetchSize,
+            @Value("#{jobParameters['checkpointInterval'] ?: 1000000}") Integer checkpointInterval,
+            @Value("#{jobParameters['expectedUserCount'] ?: 65536}") Integer expectedUserCount,
+            @Value("#{jobParameters['maxInMemoryUsers'] ?: 10000000}") Integer maxInMemoryUsers,
+            @Value("#{jobParameters['snapshotDirectory'] ?: systemProperties['java.io.tmpdir']}") String snapshotDirectory,
+            @Value("#{jobExecutionContext['fromId']}") Long fromId,
+            @Value("#{jobExecutionContext['toId']}") Long toId
+    ){
+        return new InMemoryScoreAggregationTasklet(
+                new SessionActionCursorItemReader(postgresReadDataSource, idWindowWhereClause(fromId, toId), fetchSize),
+                getSessionActionProcessor(),
+                userScoreUpdateCopyWriter,
+                Path.of(snapshotDirectory, "action-calculation"),
+                checkpointInterval,
+                expectedUserCount,
+                maxInMemoryUsers);
+    }
+
+
     @Bean("simpleActionCalculationStep")
     public Step simpleActionCalculationStep(
             JobRepository jobRepository,
             @Qualifier("postgresTransactionManager") PlatformTransactionManager transactionManager,
             @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader,
-            @Qualifier("userScoreUpdateWriter") ItemWriter<UserScoreUpdate> userScoreUpdateWriter,
-            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener
+            @Qualifier("foldingUserScoreUpdateWriter") ItemStreamWriter<UserScoreUpdate> foldingUserScoreUpdateWriter,
+            @Qualifier("beforeStepLoggerListener") StepExecutionListener beforeStepLoggerListener,
+            @Qualifier("chunkTimingListener") ChunkListener chunkTimingListener,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener,
+            @Qualifier("adaptiveChunkSizePolicy") AdaptiveChunkSizePolicy adaptiveChunkSizePolicy,
+            @Qualifier("deadLetterSkipListener") DeadLetterSkipListener deadLetterSkipListener
     ){
-        return new StepBuilder("simpleActionCalculationStep", jobRepository)
-                .<SessionAction, UserScoreUpdate>chunk(5, transactionManager)
+        return faultTolerant(new StepBuilder("simpleActionCalculationStep", jobRepository)
+                .<SessionAction, UserScoreUpdate>chunk(adaptiveChunkSizePolicy, transactionManager)
                 .reader(sessionActionReader)
                 .processor(getSessionActionProcessor())
-                .writer(userScoreUpdateWriter)
+                // Fold the chunk into one upsert per user before writing
+                .writer(foldingUserScoreUpdateWriter)
+                .listener(chunkTimingListener)
+                // Measures the chunks the policy sizes
+                .listener((ChunkListener) adaptiveChunkSizePolicy), deadLetterSkipListener)
                 .listener(beforeStepLoggerListener)
+                .listener(stepMetricsListener)
                 .build();
     }
 
+    /*
+    * Unknown action types are set aside up to the skip limit, a chunk that lost a deadlock or a serialization
+    * conflict is rolled back and written again after a randomized, growing pause.
+    * Chunk listeners that also listen to the items have to be registered before: the fault tolerant builder
+    * wraps the chunk listeners registered on it, which hides their item callbacks.
+     */
+    private FaultTolerantStepBuilder<SessionAction, UserScoreUpdate> faultTolerant(
+            SimpleStepBuilder<SessionAction, UserScoreUpdate> stepBuilder,
+            DeadLetterSkipListener deadLetterSkipListener
+    ){
+        ExponentialRandomBackOffPolicy backOffPolicy = new ExponentialRandomBackOffPolicy();
+        backOffPolicy.setInitialInterval(retryInitialIntervalMillis);
+        backOffPolicy.setMultiplier(retryMultiplier);
+        backOffPolicy.setMaxInterval(retryMaxIntervalMillis);
+        return stepBuilder.faultTolerant()
+                .skip(UnknownSessionActionTypeException.class)
+                .skipLimit(skipLimit)
+                .listener(deadLetterSkipListener)
+                .retryPolicy(new TransientDataAccessRetryPolicy(retryMaxAttempts))
+                .backOffPolicy(backOffPolicy);
+    }
+
+    @Bean("deadLetterSkipListener")
+    public DeadLetterSkipListener deadLetterSkipListener(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource
+    ){
+        return new DeadLetterSkipListener(postgresDataSource);
+    }
+
+    /*
+    * For the jobs that write partial scores and merge them with mergePartialScoresStep
+     */
+    @Bean("partialScoreTablesListener")
+    public JobExecutionListener partialScoreTablesListener(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager postgresTransactionManager
+    ){
+        return new TablePreparationListener(postgresDataSource, postgresTransactionManager,
+                SourceDatabaseUtils::createUserScorePartialTable, SourceDatabaseUtils::createScoreUpdateAggregate);
+    }
+
+    /*
+    * For the jobs with steps that set skipped session actions aside
+     */
+    @Bean("deadLetterTableListener")
+    public JobExecutionListener deadLetterTableListener(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager postgresTransactionManager
+    ){
+        return new TablePreparationListener(postgresDataSource, postgresTransactionManager, SourceDatabaseUtils::createDeadLetterTable);
+    }
+
+    /*
+    * One instance per step execution, so every partition sizes its chunks on its own.
+    * Equal bounds give a fixed commit interval.
+     */
+    @Bean("adaptiveChunkSizePolicy")
+    @StepScope
+    public AdaptiveChunkSizePolicy adaptiveChunkSizePolicy(
+            @Value("#{jobParameters['minChunkSize'] ?: 5}") Integer minChunkSize,
+            @Value("#{jobParameters['maxChunkSize'] ?: 5000}") Integer maxChunkSize,
+            @Value("#{jobParameters['targetCommitMillis'] ?: 200}") Long targetCommitMillis
+    ){
+        return new AdaptiveChunkSizePolicy(minChunkSize, maxChunkSize, targetCommitMillis);
+    }
+
     @Bean("synchronizedSessionActionReader")
     public ItemStreamReader<SessionAction> synchronizedSessionActionReader(
         @Qualifier("sessionActionReader") ItemStreamReader<SessionAction> sessionActionReader
@@ -153,47 +908,166 @@ public class ActionCalculationConfig {
                 .build();
     }
 
-    @Bean
-    @Qualifier("synchronizedUserScoreUpdateWriter")
-    public SynchronizedItemStreamWriter<UserScoreUpdate> synchronizedUserScoreUpdateWriter(
-            @Qualifier("userScoreUpdateWriter") ItemWriter<UserScoreUpdate> userScoreUpdateWriter
+    @Bean("foldingUserScoreUpdateWriter")
+    @StepScope // writer is step scoped to pick the write strategy from the job parameters
+    public ItemStreamWriter<UserScoreUpdate> foldingUserScoreUpdateWriter(
+            @Qualifier("userScoreUpdateWriter") ItemWriter<UserScoreUpdate> userScoreUpdateWriter,
+            @Qualifier("userScoreUpdateCopyWriter") ItemWriter<UserScoreUpdate> userScoreUpdateCopyWriter,
+            @Value("#{jobParameters['writerMode'] ?: 'jdbc'}") String writerMode
     ){
-        var jdbcBatchItemStreamWriterAdapter = new JdbcBatchItemStreamWriterAdapter<UserScoreUpdate>((JdbcBatchItemWriter<UserScoreUpdate>) userScoreUpdateWriter);
-        return new SynchronizedItemStreamWriterBuilder<UserScoreUpdate>()
-                .delegate(jdbcBatchItemStreamWriterAdapter)
+        // (score * m1 + a1) * m2 + a2 = score * m1 * m2 + (a1 * m2 + a2), so all updates of a user
+        // inside one chunk can be collapsed into a single upsert
+        return new UserScoreUpdateFoldingWriter(CommonConstants.COPY_WRITER_MODE.equals(writerMode)
+                ? userScoreUpdateCopyWriter
+                : userScoreUpdateWriter);
+    }
+
+
+    @Bean("sessionActionBlockReader")
+    @StepScope
+    public ItemStreamReader<SessionActionBlock> sessionActionBlockReader(
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Value("#{stepExecutionContext['minUserId']}") Long minUserId,
+            @Value("#{stepExecutionContext['maxUserId']}") Long maxUserId,
+            @Value("#{jobParameters['fetchSize'] ?: 1000}") Integer fetchSize,
+            @Value("#{jobParameters['blockSize'] ?: 1000}") Integer blockSize,
+            @Value("#{jobExecutionContext['fromId']}") Long fromId,
+            @Value("#{jobExecutionContext['toId']}") Long toId
+    ){
+        return new SessionActionBlockCursorItemReader(postgresReadDataSource,
+                sessionActionWhereClause(minUserId, maxUserId, fromId, toId), fetchSize, blockSize);
+    }
+
+    @Bean("userSessionActionsReader")
+    @StepScope
+    public ItemStreamReader<UserSessionActions> userSessionActionsReader(
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Value("#{jobParameters['pageSize'] ?: 1000}") Integer pageSize,
+            @Value("#{jobExecutionContext['fromId']}") Long fromId,
+            @Value("#{jobExecutionContext['toId']}") Long toId
+    ) throws Exception {
+        JdbcPagingItemReader<SessionAction> sessionActionByUserReader = new JdbcPagingItemReaderBuilder<SessionAction>()
+                .name("userSessionActionsReader")
+                .dataSource(postgresReadDataSource)
+                .queryProvider(SessionAction.selectSessionActionsByUserProvider(idWindowWhereClause(fromId, toId)))
+                .rowMapper(SessionAction.getSessionActionMapper())
+                .pageSize(pageSize)
+                // Read position means nothing once chunks commit out of order
+                .saveState(false)
                 .build();
+        // Not a bean of its own, so it is initialized here
+        sessionActionByUserReader.afterPropertiesSet();
+        return new SessionActionGroupingItemReader(sessionActionByUserReader);
     }
 
 
     @Bean("sessionActionReader")
     @StepScope // reader is stop scoped to auto-wire partition properties from the step execution context
     public ItemStreamReader<SessionAction> sessionActionReader(
-            @Qualifier("postgresDataSource")DataSource postgresDataSource,
-            @Value("#{stepExecutionContext['partitionCount']}") Integer partitionCount,
-            @Value("#{stepExecutionContext['partitionIndex']}") Integer partitionIndex
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Value("#{stepExecutionContext['minUserId']}") Long minUserId,
+            @Value("#{stepExecutionContext['maxUserId']}") Long maxUserId,
+            @Value("#{stepExecutionContext['partitionWhereClause']}") String partitionWhereClause,
+            @Value("#{jobParameters['readerMode'] ?: 'paging'}") String readerMode,
+            @Value("#{jobParameters['pageSize'] ?: 5}") Integer pageSize,
+            @Value("#{jobParameters['fetchSize'] ?: 1000}") Integer fetchSize,
+            @Value("#{jobParameters['prefetchSize'] ?: 20000}") Integer prefetchSize,
+            @Value("#{jobParameters['prefetchMemoryMiB'] ?: 16}") Integer prefetchMemoryMiB,
+            @Value("#{jobExecutionContext['fromId']}") Long fromId,
+            @Value("#{jobExecutionContext['toId']}") Long toId
             ){
-        PostgresPagingQueryProvider postgresPagingQueryProvider = (partitionCount==null || partitionIndex==null)
-                ? SessionAction.selectAllSessionActionsProvider()
-                : SessionAction.selectPartitionOfSessionActionsProvider(partitionCount, partitionIndex);
+        String whereClause = and(sessionActionWhereClause(minUserId, maxUserId, fromId, toId), partitionWhereClause);
+        if (CommonConstants.CURSOR_READER_MODE.equals(readerMode)) {
+            // One query streamed through a server side cursor instead of one query per page
+            return new SessionActionCursorItemReader(postgresReadDataSource, whereClause, fetchSize);
+        }
+        if (CommonConstants.PREFETCH_READER_MODE.equals(readerMode)) {
+            // The cursor is read on a thread of its own while the step writes, up to the smaller of both limits ahead
+            long prefetchCapacity = Math.min(prefetchSize, ((long) prefetchMemoryMiB << 20) / SessionAction.ESTIMATED_HEAP_BYTES);
+            ThreadFactory prefetchThreadFactory = virtualThreadsEnabled
+                    ? Thread.ofVirtual().name("session-action-prefetch-", 1).factory()
+                    : new CustomizableThreadFactory("session-action-prefetch-");
+            return new PrefetchingCursorItemReader<>(
+                    new SessionActionCursorItemReader(postgresReadDataSource, whereClause, fetchSize),
+                    SessionAction::id, (int) prefetchCapacity, prefetchThreadFactory);
+        }
+        PostgresPagingQueryProvider postgresPagingQueryProvider = SessionAction.selectSessionActionsProvider(whereClause);
         return new JdbcPagingItemReaderBuilder<SessionAction>()
                 .name("sessionActionReader")
-                .dataSource(postgresDataSource)
+                .dataSource(postgresReadDataSource)
                 .queryProvider(postgresPagingQueryProvider)
                 .rowMapper(SessionAction.getSessionActionMapper())
-                .pageSize(5)
+                .pageSize(pageSize)
                 .build();
 
     }
 
-    private static ItemProcessor<SessionAction, UserScoreUpdate> getSessionActionProcessor() {
+    /*
+    * Partition condition and id window combined, null when there is neither
+     */
+    private static String sessionActionWhereClause(Long minUserId, Long maxUserId, Long fromId, Long toId){
+        boolean partitioned = minUserId != null && maxUserId != null;
+        String partitionWhereClause = partitioned ? SessionAction.partitionWhereClause(minUserId, maxUserId) : null;
+        return and(partitionWhereClause, idWindowWhereClause(fromId, toId));
+    }
+
+    /*
+    * Both conditions, either one when the other is null
+     */
+    private static String and(String whereClause, String otherWhereClause){
+        return whereClause == null || otherWhereClause == null
+                ? (whereClause == null ? otherWhereClause : whereClause)
+                : whereClause + " and " + otherWhereClause;
+    }
+
+    /*
+    * The window the run's HighWaterMarkListener fixed in the job execution context, none outside of a run
+     */
+    private static String idWindowWhereClause(Long fromId, Long toId){
+        return fromId == null || toId == null ? null : SessionAction.idWindowWhereClause(fromId, toId);
+    }
+
+    public static ItemProcessor<SessionAction, UserScoreUpdate> getSessionActionProcessor() {
         return sessionAction -> {
             if (CommonConstants.PLUS_TYPE.equals(sessionAction.actionType())) {
                 return new UserScoreUpdate(sessionAction.userId(), sessionAction.amount(), 1d);
             } else if (CommonConstants.MULTI_TYPE.equals(sessionAction.actionType())) {
                 return new UserScoreUpdate(sessionAction.userId(), 0d, sessionAction.amount());
             } else {
-                throw new RuntimeException("Unknown session action record type: " + sessionAction.actionType());
+                throw new UnknownSessionActionTypeException("Unknown session action record type: " + sessionAction.actionType());
+            }
+        };
+    }
+
+    public static ItemProcessor<SessionActionBlock, UserScoreUpdateBlock> getSessionActionBlockProcessor() {
+        return block -> {
+            UserScoreUpdateBlock updates = new UserScoreUpdateBlock(block.size());
+            for (int i = 0; i < block.size(); i++) {
+                byte actionType = block.actionType(i);
+                if (actionType == ActionType.PLUS.code()) {
+                    updates.apply(block.userId(i), block.amount(i), 1d);
+                } else if (actionType == ActionType.MULTI.code()) {
+                    updates.apply(block.userId(i), 0d, block.amount(i));
+                } else {
+                    throw new UnknownSessionActionTypeException("Unknown session action record type of session action " + block.id(i));
+                }
+            }
+            return updates;
+        };
+    }
+
+    /*
+    * Applies the actions of a user in id order
+     */
+    public static ItemProcessor<UserSessionActions, UserScoreUpdate> getUserSessionActionsProcessor() {
+        ItemProcessor<SessionAction, UserScoreUpdate> sessionActionProcessor = getSessionActionProcessor();
+        return userSessionActions -> {
+            UserScoreUpdate userScoreUpdate = null;
+            for (SessionAction sessionAction : userSessionActions.actions()) {
+                UserScoreUpdate update = sessionActionProcessor.process(sessionAction);
+                userScoreUpdate = userScoreUpdate == null ? update : userScoreUpdate.andThen(update);
             }
+            return userScoreUpdate;
         };
     }
 
@@ -208,6 +1082,36 @@ public class ActionCalculationConfig {
                 .build();
     }
 
+    @Bean("userScoreUpdateBlockWriter")
+    public ItemWriter<UserScoreUpdateBlock> userScoreUpdateBlockWriter(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource
+    ){
+        return new UserScoreUpdateBlockWriter(postgresDataSource);
+    }
+
+    @Bean("userLaneDispatchingWriter")
+    @StepScope
+    public ItemStreamWriter<SessionAction> userLaneDispatchingWriter(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Value("#{jobParameters['laneCount']}") String laneCount,
+            @Value("#{stepExecution.jobExecution.jobInstance.id}") Long jobInstanceId
+    ){
+        // Every lane holds a connection while writing, the job sized the pools for them
+        int lanes = laneCount(laneCount);
+        ThreadFactory laneThreadFactory = virtualThreadsEnabled
+                ? Thread.ofVirtual().name("user-lane-", 1).factory()
+                : new CustomizableThreadFactory("user-lane-");
+        return new UserLaneDispatchingWriter(postgresDataSource, getSessionActionProcessor(), jobInstanceId, lanes, laneThreadFactory);
+    }
+
+    @Bean("userScoreUpdateCopyWriter")
+    public ItemWriter<UserScoreUpdate> userScoreUpdateCopyWriter(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource
+    ){
+        // COPY into a staging table followed by a single set based upsert per chunk
+        return new UserScoreUpdateCopyWriter(postgresDataSource);
+    }
+
 
     @Bean("beforeStepLoggerListener")
     public StepExecutionListener beforeStepLoggerListener(){
@@ -218,29 +1122,126 @@ public class ActionCalculationConfig {
                 int partitionIndex = stepExecution.getExecutionContext().getInt(CommonConstants.PARTITION_INDEX, -1);
                 if (partitionCount == -1 && partitionIndex == -1){
                     LOGGER.info("Calculation step is about to start handling all session action records");
+                }else if (!stepExecution.getExecutionContext().containsKey(CommonConstants.MIN_USER_ID)){
+                    LOGGER.info("Calculation step is about to start handling partition {} out of total {} partitions ({}) in the thread -> {}",
+                            partitionIndex, partitionCount,
+                            stepExecution.getExecutionContext().getString(CommonConstants.PARTITION_WHERE_CLAUSE, "all users"),
+                            Thread.currentThread().getName());
                 }else{
                     String threadName = Thread.currentThread().getName();
-                    LOGGER.info("Calculation step is about to start handling partition {} out of total {} partitions in the thread -> {}", partitionIndex, partitionCount, threadName);
+                    LOGGER.info("Calculation step is about to start handling partition {} out of total {} partitions (users {}..{}) in the thread -> {}",
+                            partitionIndex, partitionCount,
+                            stepExecution.getExecutionContext().getLong(CommonConstants.MIN_USER_ID),
+                            stepExecution.getExecutionContext().getLong(CommonConstants.MAX_USER_ID),
+                            threadName);
                 }
 
             }
         };
     }
 
+    @Bean("chunkTimingListener")
+    public ChunkListener chunkTimingListener(MeterRegistry meterRegistry){
+        return new ChunkTimingListener(meterRegistry);
+    }
+
+    @Bean("stepMetricsListener")
+    public StepExecutionListener stepMetricsListener(MeterRegistry meterRegistry, JobExplorer jobExplorer){
+        return new StepMetricsListener(meterRegistry, jobExplorer);
+    }
+
+    /*
+    * Hands the actuator observation registry to the jobs and steps, which otherwise record no
+    * spring.batch.job and spring.batch.step observations
+     */
+    @Bean
+    public static BatchObservabilityBeanPostProcessor batchObservabilityBeanPostProcessor(){
+        return new BatchObservabilityBeanPostProcessor();
+    }
+
+    /*
+    * Wraps the job repository, so the steps store their counters once per interval instead of after every chunk.
+    * An interval of 0 stores every update and only times the repository calls.
+     */
+    @Bean
+    public static BeanPostProcessor coalescingJobRepositoryPostProcessor(
+            ObjectProvider<MeterRegistry> meterRegistry,
+            Environment environment
+    ){
+        long stepUpdateIntervalMillis = environment.getProperty("batch.job-repository.step-update-interval-millis", Long.class, 1000L);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof JobRepository jobRepository && !(bean instanceof CoalescingJobRepository)) {
+                    return new CoalescingJobRepository(jobRepository, meterRegistry.getObject(), stepUpdateIntervalMillis);
+                }
+                return bean;
+            }
+        };
+    }
+
     @Bean("multiThreadStepExecutor")
     public TaskExecutor multiThreadStepExecutor(){
+        if (virtualThreadsEnabled) {
+            return buildAsyncTaskExecutor("multi-thread-step-", workerConcurrencyLimit());
+        }
         return new ThreadPoolTaskExecutorBuilder()
-                .corePoolSize(3)
+                .corePoolSize(MULTI_THREAD_STEP_THREADS)
                 .build();
     }
 
+    @Bean("groupedStepExecutor")
+    public TaskExecutor groupedStepExecutor(){
+        return buildAsyncTaskExecutor("grouped-step-", workerConcurrencyLimit());
+    }
+
+    @Bean("partitionStepExecutor")
+    public TaskExecutor partitionStepExecutor(){
+        // Partitions mostly wait on JDBC, so the connections the pools are sized for rather than the thread count limit how many run at once
+        return buildAsyncTaskExecutor("partition-step-", workerConcurrencyLimit());
+    }
+
+
+    /*
+    * Every job writes user_score, so submissions run one at a time
+     */
+    @Bean("jobSubmissionScheduler")
+    public JobSubmissionScheduler jobSubmissionScheduler(
+            JobRepository jobRepository,
+            JobExplorer jobExplorer
+    ){
+        return new JobSubmissionScheduler(jobRepository, jobExplorer, buildAsyncTaskExecutor("job-launcher-", 1),
+                schedulerMaxQueuedJobs);
+    }
+
+    /*
+    * Uses virtual threads when batch.virtual-threads.enabled is set, platform threads otherwise
+     */
+    private SimpleAsyncTaskExecutor buildAsyncTaskExecutor(String threadNamePrefix, int concurrencyLimit){
+        SimpleAsyncTaskExecutor simpleAsyncTaskExecutor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        simpleAsyncTaskExecutor.setVirtualThreads(virtualThreadsEnabled);
+        simpleAsyncTaskExecutor.setConcurrencyLimit(concurrencyLimit);
+        return simpleAsyncTaskExecutor;
+    }
+
+    /*
+    * Threads, partitions or lanes a step runs at once, every one of them needs a connection of each pool
+     */
+    private int workerConcurrencyLimit(){
+        return Math.max(1, workerConcurrency);
+    }
+
+    private int partitionedStepWorkers(){
+        return Math.min(Runtime.getRuntime().availableProcessors(), workerConcurrencyLimit());
+    }
+
+    private int multiThreadedStepWorkers(){
+        return virtualThreadsEnabled ? workerConcurrencyLimit() : MULTI_THREAD_STEP_THREADS;
+    }
 
-    @Bean("asyncJobLauncher")
-    public JobLauncher asyncJobLauncher(JobRepository jobRepository){
-        TaskExecutorJobLauncher taskExecutorJobLauncher = new TaskExecutorJobLauncher();
-        taskExecutorJobLauncher.setJobRepository(jobRepository);
-        taskExecutorJobLauncher.setTaskExecutor(new SimpleAsyncTaskExecutor());
-        return taskExecutorJobLauncher;
+    private int laneCount(String laneCount){
+        int lanes = laneCount == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(laneCount);
+        return Math.max(1, Math.min(lanes, workerConcurrencyLimit()));
     }
 
 
@@ -0,0 +1,121 @@
+package spring.batch.actionCalculation.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.JobParameters;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Sizes the read and write pools for the workers that currently need a connection of their own: the threads,
+ * partitions or lanes of the running jobs and the remote partitioning worker slots. The read pool gets one
+ * connection per reader, e.g. per partition, the write pool one per writing thread, both plus the reserved ones for
+ * the work around the steps (partitioning, high-water marks, the controller), up to a ceiling that protects the
+ * database.
+ * <p>
+ * The job repository pool is not sized here. Workers only borrow it for the moment they save their step execution,
+ * so it keeps the small fixed size it is configured with however many workers run.
+ * <p>
+ * Hikari opens connections on demand up to the maximum pool size and retires the surplus once they are returned,
+ * so the pools can be resized while jobs run.
+ */
+public class ConnectionPoolSizer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPoolSizer.class);
+
+    private final HikariDataSource readPool;
+    private final HikariDataSource writePool;
+    private final int reservedConnections;
+    private final int maxConnections;
+
+    private int readers;
+    private int writers;
+
+    public ConnectionPoolSizer(HikariDataSource readPool, HikariDataSource writePool, Workers standingWorkers,
+                               int reservedConnections, int maxConnections) {
+        this.readPool = readPool;
+        this.writePool = writePool;
+        this.reservedConnections = reservedConnections;
+        this.maxConnections = maxConnections;
+        acquire(standingWorkers);
+    }
+
+    /**
+     * Most workers a pool can serve at the same time
+     */
+    public int maxWorkers() {
+        return Math.max(1, maxConnections - reservedConnections);
+    }
+
+    public synchronized void acquire(Workers workers) {
+        readers += workers.readers();
+        writers += workers.writers();
+        resize();
+    }
+
+    public synchronized void release(Workers workers) {
+        readers -= workers.readers();
+        writers -= workers.writers();
+        resize();
+    }
+
+    /**
+     * Holds the given workers from the start to the end of every execution of the job it is registered on.
+     * Has to be the first listener of the job, the end of a job is also reported when a later listener failed to start it.
+     */
+    public JobExecutionListener sizingListener(Function<JobParameters, Workers> jobWorkers) {
+        Map<Long, Workers> acquiredWorkers = new ConcurrentHashMap<>();
+        return new JobExecutionListener() {
+            @Override
+            public void beforeJob(JobExecution jobExecution) {
+                Workers workers = jobWorkers.apply(jobExecution.getJobParameters());
+                acquiredWorkers.put(jobExecution.getId(), workers);
+                acquire(workers);
+            }
+
+            @Override
+            public void afterJob(JobExecution jobExecution) {
+                Workers workers = acquiredWorkers.remove(jobExecution.getId());
+                if (workers != null) {
+                    release(workers);
+                }
+            }
+        };
+    }
+
+    private void resize() {
+        resize(readPool, readers, "readers");
+        resize(writePool, writers, "writers");
+    }
+
+    private void resize(HikariDataSource pool, int workers, String role) {
+        int poolSize = Math.min(maxConnections, reservedConnections + workers);
+        if (reservedConnections + workers > maxConnections) {
+            LOGGER.warn("{} {} need more than {} connections of {}, they will wait for a connection",
+                    workers, role, maxConnections, pool.getPoolName());
+        }
+        if (pool.getMaximumPoolSize() != poolSize) {
+            pool.getHikariConfigMXBean().setMaximumPoolSize(poolSize);
+            LOGGER.info("Resized {} to {} connections for {} {}", pool.getPoolName(), poolSize, workers, role);
+        }
+    }
+
+    /**
+     * Connections a job or a tool holds while it runs: one read connection per reader and one write connection per
+     * writing thread
+     */
+    public record Workers(int readers, int writers) {
+
+        /**
+         * Workers that each read and write on connections of their own, like partitions
+         */
+        public static Workers readingAndWriting(int workerCount) {
+            return new Workers(workerCount, workerCount);
+        }
+    }
+}
@@ -6,16 +6,25 @@ import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import org.springframework.jdbc.support.JdbcTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 
 
 @Configuration
@@ -23,12 +32,42 @@ import javax.sql.DataSource;
 @PropertySource("classpath:application.properties")
 public class DataSourceConfig {
 
+    public static final String JDBC_JOB_REPOSITORY_MODE = "jdbc";
+    public static final String EMBEDDED_JOB_REPOSITORY_MODE = "embedded";
+
     private static final Logger log =  LoggerFactory.getLogger(DataSourceConfig.class);
 
-    @Bean(name="commonHikariConfig")
-    @ConfigurationProperties(prefix="datasource.hikari.common")
-    public HikariConfig commonHikariConfig(){
-        return new HikariConfig();
+    @Value("${batch.job-repository.mode:jdbc}")
+    private String jobRepositoryMode;
+
+    @Value("${batch.job-repository.embedded.url:jdbc:h2:mem:batch-metadata;DB_CLOSE_DELAY=-1}")
+    private String embeddedJobRepositoryUrl;
+
+    @Value("${datasource.pools.reserved-connections:2}")
+    private int reservedConnections;
+
+    @Value("${datasource.pools.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${batch.remote-partitioning.worker.enabled:true}")
+    private boolean remotePartitioningWorkerEnabled;
+
+    @Value("${batch.remote-partitioning.worker.concurrency:2}")
+    private int remotePartitioningWorkerConcurrency;
+
+    @Bean(name="readHikariConfig")
+    public HikariConfig readHikariConfig(Environment environment){
+        return bindHikariConfig(environment, "datasource.hikari.read");
+    }
+
+    @Bean(name="writeHikariConfig")
+    public HikariConfig writeHikariConfig(Environment environment){
+        return bindHikariConfig(environment, "datasource.hikari.write");
+    }
+
+    @Bean(name="metadataHikariConfig")
+    public HikariConfig metadataHikariConfig(Environment environment){
+        return bindHikariConfig(environment, "datasource.hikari.metadata");
     }
 
     @Bean("postgresDataSourceProperties")
@@ -43,20 +82,63 @@ public class DataSourceConfig {
         return new CommonDataSourceProperties();
     }
 
+    /*
+    * Write pool, the step transactions and everything written in them run on it
+     */
     @Bean("postgresDataSource")
     public DataSource postgresDataSource(
-            @Qualifier("commonHikariConfig") HikariConfig hikariConfig,
+            @Qualifier("writeHikariConfig") HikariConfig hikariConfig,
+            @Qualifier("postgresDataSourceProperties") CommonDataSourceProperties properties
+    ){
+        return buildDataSource(hikariConfig,properties);
+    }
+
+    /*
+    * Read pool for the session action readers and the queries around the steps, outside of the step transactions
+     */
+    @Bean("postgresReadDataSource")
+    public DataSource postgresReadDataSource(
+            @Qualifier("readHikariConfig") HikariConfig hikariConfig,
             @Qualifier("postgresDataSourceProperties") CommonDataSourceProperties properties
     ){
         return buildDataSource(hikariConfig,properties);
     }
 
+    /*
+    * Job repository metadata, on MySQL or, in the embedded mode, in an H2 database inside this process
+     */
     @Bean("dataSource")
     public DataSource dataSource(
-            @Qualifier("commonHikariConfig") HikariConfig hikariConfig,
+            @Qualifier("metadataHikariConfig") HikariConfig hikariConfig,
             @Qualifier("mysqlDataSourceProperties") CommonDataSourceProperties properties
     ){
-        return buildDataSource(hikariConfig,properties);
+        return switch (jobRepositoryMode) {
+            case JDBC_JOB_REPOSITORY_MODE -> buildDataSource(hikariConfig, properties);
+            case EMBEDDED_JOB_REPOSITORY_MODE -> {
+                CommonDataSourceProperties embeddedProperties = new CommonDataSourceProperties();
+                embeddedProperties.setUrl(embeddedJobRepositoryUrl);
+                embeddedProperties.setUsername("sa");
+                embeddedProperties.setPassword("");
+                embeddedProperties.setDriverClassName("org.h2.Driver");
+                embeddedProperties.setPoolName("EmbeddedJobRepositoryHikariPool");
+                HikariDataSource embeddedDataSource = buildDataSource(hikariConfig, embeddedProperties);
+                createJobRepositorySchemaIfNotExists(embeddedDataSource);
+                yield embeddedDataSource;
+            }
+            default -> throw new IllegalArgumentException("Unknown job repository mode: " + jobRepositoryMode
+                    + ", expected " + JDBC_JOB_REPOSITORY_MODE + " or " + EMBEDDED_JOB_REPOSITORY_MODE);
+        };
+    }
+
+    @Bean("connectionPoolSizer")
+    public ConnectionPoolSizer connectionPoolSizer(
+            @Qualifier("postgresReadDataSource") DataSource postgresReadDataSource,
+            @Qualifier("postgresDataSource") DataSource postgresDataSource
+    ){
+        // Remote partitioning worker slots take partitions without a job being launched on this node
+        int standingWorkers = remotePartitioningWorkerEnabled ? remotePartitioningWorkerConcurrency : 0;
+        return new ConnectionPoolSizer((HikariDataSource) postgresReadDataSource, (HikariDataSource) postgresDataSource,
+                ConnectionPoolSizer.Workers.readingAndWriting(standingWorkers), reservedConnections, maxConnections);
     }
 
     @Bean("postgresTransactionManager")
@@ -78,16 +160,50 @@ public class DataSourceConfig {
         return jdbcTransactionManager;
     }
 
+    /*
+    * The settings of a pool on top of the common ones. Bound into a config of its own instead of a copy,
+    * copies share the driver properties.
+     */
+    private static HikariConfig bindHikariConfig(Environment environment, String poolPrefix){
+        HikariConfig hikariConfig = new HikariConfig();
+        Binder binder = Binder.get(environment);
+        binder.bind("datasource.hikari.common", Bindable.ofInstance(hikariConfig));
+        binder.bind(poolPrefix, Bindable.ofInstance(hikariConfig));
+        return hikariConfig;
+    }
+
+    /*
+    * A file based embedded database keeps its schema across restarts
+     */
+    private static void createJobRepositorySchemaIfNotExists(DataSource dataSource){
+        try (Connection connection = dataSource.getConnection()) {
+            try (ResultSet tables = connection.getMetaData().getTables(null, null, "BATCH_JOB_INSTANCE", null)) {
+                if (tables.next()) {
+                    return;
+                }
+            }
+            new ResourceDatabasePopulator(new ClassPathResource("org/springframework/batch/core/schema-h2.sql")).populate(connection);
+            connection.commit();
+            log.info("Created the job repository schema in the embedded database");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to create the job repository schema", e);
+        }
+    }
+
     private static HikariDataSource buildDataSource(HikariConfig config, CommonDataSourceProperties properties){
         HikariConfig hikariConfig = new HikariConfig();
         config.copyStateTo(hikariConfig);
         hikariConfig.setJdbcUrl(properties.getUrl());
         hikariConfig.setUsername(properties.getUsername());
         hikariConfig.setPassword(properties.getPassword());
-        hikariConfig.setPoolName(properties.getPoolName());
+        // Pools sharing a database name themselves
+        if (hikariConfig.getPoolName() == null) {
+            hikariConfig.setPoolName(properties.getPoolName());
+        }
         hikariConfig.setDriverClassName(properties.getDriverClassName());
         return new HikariDataSource(hikariConfig);
     }
 
 
+
 }
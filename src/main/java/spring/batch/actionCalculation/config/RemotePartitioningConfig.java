@@ -0,0 +1,320 @@
+package spring.batch.actionCalculation.config;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.Step;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.job.builder.JobBuilder;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.step.StepLocator;
+import org.springframework.batch.core.step.builder.StepBuilder;
+import org.springframework.batch.integration.partition.BeanFactoryStepLocator;
+import org.springframework.batch.integration.partition.MessageChannelPartitionHandler;
+import org.springframework.batch.integration.partition.StepExecutionRequest;
+import org.springframework.batch.integration.partition.StepExecutionRequestHandler;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.aop.ReceiveMessageAdvice;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.channel.ExecutorChannel;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.core.MessagingTemplate;
+import org.springframework.integration.dsl.IntegrationFlow;
+import org.springframework.integration.dsl.Pollers;
+import org.springframework.integration.dsl.PollerSpec;
+import org.springframework.integration.jdbc.store.JdbcChannelMessageStore;
+import org.springframework.integration.jdbc.store.channel.PostgresChannelMessageStoreQueryProvider;
+import org.springframework.integration.store.MessageGroupQueue;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.PollableChannel;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+import spring.batch.actionCalculation.listener.TablePreparationListener;
+import spring.batch.actionCalculation.utils.SourceDatabaseUtils;
+
+import javax.sql.DataSource;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Remote partitioning of the calculation: the manager node splits session_action with the
+ * {@link spring.batch.actionCalculation.partitioner.SessionActionPartitioner} and sends one request per partition,
+ * worker nodes run simpleActionCalculationStep for the requests they take. Every node runs this same application,
+ * a node takes requests while batch.remote-partitioning.worker.enabled is set. The manager learns about finished
+ * partitions by polling the shared job repository, so no reply transport is needed.
+ * <p>
+ * The transport is picked with batch.remote-partitioning.transport:
+ * <ul>
+ *     <li>local: an in-JVM queue, the manager node is its own worker. Stands in for a broker on a single box.</li>
+ *     <li>jdbc: a queue table in Postgres shared by all nodes, for running several processes without a broker.</li>
+ * </ul>
+ * Another broker only needs another partitionRequestQueue and worker inbound.
+ */
+@Configuration
+public class RemotePartitioningConfig {
+
+    public static final String LOCAL_TRANSPORT = "local";
+    public static final String JDBC_TRANSPORT = "jdbc";
+
+    private static final String PARTITION_REQUEST_GROUP = "partitionRequests";
+
+    @Value("${batch.remote-partitioning.transport:local}")
+    private String transport;
+
+    @Value("${batch.job-repository.mode:jdbc}")
+    private String jobRepositoryMode;
+
+    @Value("${batch.remote-partitioning.grid-size:8}")
+    private int gridSize;
+
+    @Value("${batch.remote-partitioning.poll-interval-millis:1000}")
+    private long pollIntervalMillis;
+
+    @Value("${batch.remote-partitioning.timeout-millis:-1}")
+    private long timeoutMillis;
+
+    @Value("${batch.remote-partitioning.worker.concurrency:2}")
+    private int workerConcurrency;
+
+    /*
+    * Remote partitioned job
+     */
+    @Bean("remotePartitionedActionCalculationJob")
+    public Job remotePartitionedActionCalculationJob(
+            JobRepository jobRepository,
+            @Qualifier("remotePartitionedActionCalculationStep") Step remotePartitionedActionCalculationStep,
+            @Qualifier("fullRunHighWaterMarkListener") JobExecutionListener fullRunHighWaterMarkListener,
+            @Qualifier("userScoreCacheListener") JobExecutionListener userScoreCacheListener,
+            @Qualifier("deadLetterTableListener") JobExecutionListener deadLetterTableListener,
+            @Qualifier("postgresDataSource") DataSource postgresDataSource,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager postgresTransactionManager
+    ){
+        JobBuilder jobBuilder = new JobBuilder("remotePartitionedActionCalculationJob", jobRepository)
+                .listener(fullRunHighWaterMarkListener)
+                .listener(userScoreCacheListener)
+                // The workers set skipped session actions aside
+                .listener(deadLetterTableListener);
+        if (JDBC_TRANSPORT.equals(transport)) {
+            // The manager creates the queue table before it sends the first request
+            jobBuilder.listener(new TablePreparationListener(postgresDataSource, postgresTransactionManager,
+                    SourceDatabaseUtils::createChannelMessageTable));
+        }
+        return jobBuilder
+                .start(remotePartitionedActionCalculationStep)
+                .build();
+    }
+
+    @Bean("remotePartitionedActionCalculationStep")
+    public Step remotePartitionedActionCalculationStep(
+            JobRepository jobRepository,
+            @Qualifier("sessionActionPartitioner") Partitioner sessionActionPartitioner,
+            @Qualifier("remotePartitionHandler") MessageChannelPartitionHandler remotePartitionHandler,
+            @Qualifier("stepMetricsListener") StepExecutionListener stepMetricsListener
+    ){
+        return new StepBuilder("remotePartitionedActionCalculationStep", jobRepository)
+                .partitioner("simpleActionCalculationStep", sessionActionPartitioner)
+                .partitionHandler(remotePartitionHandler)
+                .listener(stepMetricsListener)
+                .build();
+    }
+
+    @Bean("remotePartitionHandler")
+    public MessageChannelPartitionHandler remotePartitionHandler(
+            JobExplorer jobExplorer,
+            @Qualifier("partitionRequests") MessageChannel partitionRequests
+    ){
+        MessagingTemplate messagingTemplate = new MessagingTemplate();
+        messagingTemplate.setDefaultChannel(partitionRequests);
+
+        MessageChannelPartitionHandler partitionHandler = new MessageChannelPartitionHandler();
+        partitionHandler.setStepName("simpleActionCalculationStep");
+        // Upper bound only, the partitioner lowers it when there is not enough data to split
+        partitionHandler.setGridSize(gridSize);
+        partitionHandler.setMessagingOperations(messagingTemplate);
+        // Wait for the partitions through the job repository instead of a reply channel
+        partitionHandler.setJobExplorer(jobExplorer);
+        partitionHandler.setPollInterval(pollIntervalMillis);
+        partitionHandler.setTimeout(timeoutMillis);
+        return partitionHandler;
+    }
+
+    @Bean("partitionRequests")
+    public MessageChannel partitionRequests(){
+        return new DirectChannel();
+    }
+
+    @Bean("partitionRequestQueue")
+    public PollableChannel partitionRequestQueue(
+            @Qualifier("postgresDataSource") DataSource postgresDataSource
+    ){
+        return switch (transport) {
+            case LOCAL_TRANSPORT -> new QueueChannel();
+            case JDBC_TRANSPORT -> {
+                // Workers on other nodes read the partition step executions from the job repository
+                if (DataSourceConfig.EMBEDDED_JOB_REPOSITORY_MODE.equals(jobRepositoryMode)) {
+                    throw new IllegalStateException("The " + JDBC_TRANSPORT + " remote partitioning transport needs a job repository shared by all nodes, "
+                            + "not the " + DataSourceConfig.EMBEDDED_JOB_REPOSITORY_MODE + " one");
+                }
+                JdbcChannelMessageStore messageStore = new PartitionRequestMessageStore(postgresDataSource);
+                messageStore.setChannelMessageStoreQueryProvider(new PostgresChannelMessageStoreQueryProvider());
+                // The stored messages are Java serialized, only what a partition request consists of is read back
+                messageStore.addAllowedPatterns(GenericMessage.class.getName(), MessageHeaders.class.getName(),
+                        StepExecutionRequest.class.getName(), "java.util.*", "java.lang.*");
+                // Not a bean of its own, so it is initialized here
+                messageStore.afterPropertiesSet();
+                yield new QueueChannel(new MessageGroupQueue(messageStore, PARTITION_REQUEST_GROUP));
+            }
+            default -> throw new IllegalArgumentException("Unknown remote partitioning transport: " + transport
+                    + ", expected " + LOCAL_TRANSPORT + " or " + JDBC_TRANSPORT);
+        };
+    }
+
+    /*
+    * The pools run without auto-commit, so the queue table is written and read in a Postgres transaction
+     */
+    @Bean("partitionRequestOutboundFlow")
+    public IntegrationFlow partitionRequestOutboundFlow(
+            @Qualifier("partitionRequests") MessageChannel partitionRequests,
+            @Qualifier("partitionRequestQueue") PollableChannel partitionRequestQueue,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager postgresTransactionManager
+    ){
+        return IntegrationFlow.from(partitionRequests)
+                .bridge(endpoint -> {
+                    if (JDBC_TRANSPORT.equals(transport)) {
+                        endpoint.transactional(postgresTransactionManager, true);
+                    }
+                })
+                .channel(partitionRequestQueue)
+                .get();
+    }
+
+    /*
+    * A request is only taken from the queue while a worker slot is free, so the requests spread over all worker
+    * nodes instead of piling up on the first one. The step runs on the worker executor, after the transaction that
+    * took the request committed: a request taken by a node that dies stays STARTED and is picked up by a restart.
+     */
+    @Bean("partitionWorkerFlow")
+    @ConditionalOnProperty(name = "batch.remote-partitioning.worker.enabled", havingValue = "true", matchIfMissing = true)
+    public IntegrationFlow partitionWorkerFlow(
+            @Qualifier("partitionRequestQueue") PollableChannel partitionRequestQueue,
+            @Qualifier("partitionWorkerExecutor") ThreadPoolTaskExecutor partitionWorkerExecutor,
+            @Qualifier("stepExecutionRequestHandler") StepExecutionRequestHandler stepExecutionRequestHandler,
+            @Qualifier("postgresTransactionManager") PlatformTransactionManager postgresTransactionManager
+    ){
+        Semaphore workerSlots = new Semaphore(workerConcurrency);
+        PollerSpec poller = Pollers.fixedDelay(pollIntervalMillis)
+                .maxMessagesPerPoll(workerConcurrency)
+                .advice(new WorkerSlotAdvice(workerSlots));
+        if (JDBC_TRANSPORT.equals(transport)) {
+            poller.transactional(postgresTransactionManager);
+        }
+        return IntegrationFlow.from(partitionRequestQueue)
+                .bridge(endpoint -> endpoint.poller(poller))
+                .channel(new ExecutorChannel(partitionWorkerExecutor))
+                .<StepExecutionRequest>handle((request, headers) -> {
+                    try {
+                        return stepExecutionRequestHandler.handle(request);
+                    } finally {
+                        workerSlots.release();
+                    }
+                })
+                // The manager polls the job repository, the finished step execution is not sent back
+                .nullChannel();
+    }
+
+    @Bean("stepExecutionRequestHandler")
+    public StepExecutionRequestHandler stepExecutionRequestHandler(
+            JobExplorer jobExplorer,
+            @Qualifier("partitionStepLocator") StepLocator partitionStepLocator
+    ){
+        StepExecutionRequestHandler stepExecutionRequestHandler = new StepExecutionRequestHandler();
+        stepExecutionRequestHandler.setJobExplorer(jobExplorer);
+        stepExecutionRequestHandler.setStepLocator(partitionStepLocator);
+        return stepExecutionRequestHandler;
+    }
+
+    @Bean("partitionStepLocator")
+    public StepLocator partitionStepLocator(){
+        return new BeanFactoryStepLocator();
+    }
+
+    @Bean("partitionWorkerExecutor")
+    public ThreadPoolTaskExecutor partitionWorkerExecutor(){
+        return new ThreadPoolTaskExecutorBuilder()
+                .corePoolSize(workerConcurrency)
+                .maxPoolSize(workerConcurrency)
+                .threadNamePrefix("partition-worker-")
+                .build();
+    }
+
+    /**
+     * Workers start polling before a manager ran the first remote partitioned job, which creates the queue table;
+     * until the table shows up a poll finds nothing instead of failing.
+     */
+    private static class PartitionRequestMessageStore extends JdbcChannelMessageStore {
+
+        private final JdbcTemplate jdbcTemplate;
+        private volatile boolean tableCreated;
+
+        private PartitionRequestMessageStore(DataSource dataSource) {
+            super(dataSource);
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+        }
+
+        @Override
+        public Message<?> pollMessageFromGroup(Object groupId) {
+            if (!tableCreated) {
+                tableCreated = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                        "select to_regclass('int_channel_message') is not null", Boolean.class));
+                if (!tableCreated) {
+                    return null;
+                }
+            }
+            return super.pollMessageFromGroup(groupId);
+        }
+    }
+
+    /**
+     * Receives from the queue only when a slot is free, the slot is given back when nothing was received
+     * or when the partition finished.
+     */
+    private static class WorkerSlotAdvice implements ReceiveMessageAdvice {
+
+        private final Semaphore workerSlots;
+
+        private WorkerSlotAdvice(Semaphore workerSlots) {
+            this.workerSlots = workerSlots;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            if (!workerSlots.tryAcquire()) {
+                return null;
+            }
+            Object message = null;
+            try {
+                message = invocation.proceed();
+                return message;
+            } finally {
+                if (message == null) {
+                    workerSlots.release();
+                }
+            }
+        }
+
+        @Override
+        public Message<?> afterReceive(Message<?> result, Object source) {
+            return result;
+        }
+    }
+}
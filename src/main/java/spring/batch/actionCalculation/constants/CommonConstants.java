@@ -4,10 +4,32 @@ public class CommonConstants {
     public static final String PLUS_TYPE = "plus";
     public static final String MULTI_TYPE = "multi";
     public static final String USER_SCORE_TABLE_NAME = "user_score";
+    public static final String USER_SCORE_STAGING_TABLE_NAME = "user_score_staging";
+    public static final String USER_SCORE_PARTIAL_TABLE_NAME = "user_score_partial";
+    public static final String USER_SCORE_LANE_MARK_TABLE_NAME = "user_score_lane_mark";
     public static final String PARTITION_COUNT = "partitionCount";
     public static final String PARTITION_INDEX = "partitionIndex";
+    public static final String MIN_USER_ID = "minUserId";
+    public static final String MAX_USER_ID = "maxUserId";
+    public static final String PARTITION_WHERE_CLAUSE = "partitionWhereClause";
+    public static final long MIN_ROWS_PER_PARTITION = 10_000;
     public static final String PARTITION_NAME_PREFIX = "sessionActionPartition-";
+    public static final String FILE_START_OFFSET = "fileStartOffset";
+    public static final String FILE_END_OFFSET = "fileEndOffset";
+    public static final long MIN_BYTES_PER_FILE_PARTITION = 1L << 20;
+    public static final String FROM_ID = "fromId";
+    public static final String TO_ID = "toId";
     public static final String SESSION_ACTION_TABLE_NAME = "session_action";
+    public static final String SESSION_ACTION_DEAD_LETTER_TABLE_NAME = "session_action_dead_letter";
+    public static final String SCORE_AGGREGATE_NAME = "session_action_score";
+    public static final String SCORE_UPDATE_AGGREGATE_NAME = "user_score_update_compose";
+    public static final String READER_MODE = "readerMode";
+    public static final String CURSOR_READER_MODE = "cursor";
+    public static final String PAGING_READER_MODE = "paging";
+    public static final String PREFETCH_READER_MODE = "prefetch";
+    public static final String WRITER_MODE = "writerMode";
+    public static final String COPY_WRITER_MODE = "copy";
+    public static final String JDBC_WRITER_MODE = "jdbc";
     public static final int USER_COUNT = 5;
     public static final int RECORD_COUNT = 20;
 }
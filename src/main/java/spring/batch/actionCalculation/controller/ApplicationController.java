@@ -1,24 +1,32 @@
 package spring.batch.actionCalculation.controller;
 
+import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
 import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
-import org.springframework.batch.core.JobParametersInvalidException;
-import org.springframework.batch.core.job.AbstractJob;
-import org.springframework.batch.core.launch.JobLauncher;
-import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
-import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
-import org.springframework.batch.core.repository.JobRestartException;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import spring.batch.actionCalculation.scheduler.JobSubmissionScheduler;
+import spring.batch.actionCalculation.scheduler.JobSubmissionStatus;
 import spring.batch.actionCalculation.utils.SourceDatabaseUtils;
 
 import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
 
 @RestController
@@ -33,8 +41,8 @@ public class ApplicationController {
     private PlatformTransactionManager transactionManager;
 
     @Autowired
-    @Qualifier("asyncJobLauncher")
-    private JobLauncher jobLauncher;
+    @Qualifier("jobSubmissionScheduler")
+    private JobSubmissionScheduler jobSubmissionScheduler;
 
     @Autowired
     private Job simpleActionCalculationJob;
@@ -45,26 +53,144 @@ public class ApplicationController {
     @Autowired
     private Job partitionedLocalActionCalculationJob;
 
-    @PostMapping("/start-simple-local")
-    public String startSimpleLocal() throws JobInstanceAlreadyCompleteException, JobExecutionAlreadyRunningException, JobParametersInvalidException, JobRestartException {
-        prepareEmptyResultTable();
-        jobLauncher.run(simpleActionCalculationJob,buildUniqueJobParameters());
-        return "Successfully started!\n";
+    @Autowired
+    private Job remotePartitionedActionCalculationJob;
+
+    @Autowired
+    private Job laneDispatchedActionCalculationJob;
+
+    @Autowired
+    private Job inMemoryActionCalculationJob;
+
+    @Autowired
+    private Job groupedActionCalculationJob;
+
+    @Autowired
+    private Job columnarActionCalculationJob;
+
+    @Autowired
+    private Job databaseActionCalculationJob;
 
+    @Autowired
+    private Job hotUserPartitionedActionCalculationJob;
+
+    @Autowired
+    private Job fileActionCalculationJob;
+
+    @Autowired
+    private Job incrementalActionCalculationJob;
+
+    @Autowired
+    private JobExplorer jobExplorer;
+
+    @PostMapping("/start-simple-local")
+    public String startSimpleLocal(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(simpleActionCalculationJob, jobOptions);
     }
 
     @PostMapping("/start-multi-threaded")
-    public String startMultiThreaded() throws Exception{
-        prepareEmptyResultTable();
-        jobLauncher.run(multiThreadedActionCalculationJob, buildUniqueJobParameters());
-        return "Successfully started!\n";
+    public String startMultiThreaded(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(multiThreadedActionCalculationJob, jobOptions);
     }
 
     @PostMapping("/start-partitioned-local")
-    public String startPartitionedLocal() throws Exception{
-        prepareEmptyResultTable();
-        jobLauncher.run(partitionedLocalActionCalculationJob, buildUniqueJobParameters());
-        return "Successfully started!\n";
+    public String startPartitionedLocal(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(partitionedLocalActionCalculationJob, jobOptions);
+    }
+
+    @PostMapping("/start-remote-partitioned")
+    public String startRemotePartitioned(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(remotePartitionedActionCalculationJob, jobOptions);
+    }
+
+    @PostMapping("/start-lane-dispatched")
+    public String startLaneDispatched(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(laneDispatchedActionCalculationJob, jobOptions);
+    }
+
+    @PostMapping("/start-in-memory")
+    public String startInMemory(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(inMemoryActionCalculationJob, jobOptions);
+    }
+
+    @PostMapping("/start-columnar")
+    public String startColumnar(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(columnarActionCalculationJob, jobOptions);
+    }
+
+    @PostMapping("/start-grouped")
+    public String startGrouped(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(groupedActionCalculationJob, jobOptions);
+    }
+
+    @PostMapping("/start-database")
+    public String startDatabase(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(databaseActionCalculationJob, jobOptions);
+    }
+
+    @PostMapping("/start-hot-user-partitioned")
+    public String startHotUserPartitioned(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(hotUserPartitionedActionCalculationJob, jobOptions);
+    }
+
+    /*
+    * Reads an export instead of session_action, e.g. inputFile=/exports/session_action.bin&inputFormat=binary
+     */
+    @PostMapping("/start-file")
+    public String startFile(@RequestParam Map<String, String> jobOptions){
+        return submitFullRun(fileActionCalculationJob, jobOptions);
+    }
+
+    /*
+    * Keeps user_score and adds the session actions since the last run. A failed or stopped incremental run is
+    * restarted with its original parameters and window instead of starting a new one.
+     */
+    @PostMapping("/start-incremental")
+    public String startIncremental(@RequestParam Map<String, String> jobOptions){
+        Map<String, String> options = Map.copyOf(jobOptions);
+        return submit(incrementalActionCalculationJob, options, () -> {
+            JobInstance lastJobInstance = jobExplorer.getLastJobInstance(incrementalActionCalculationJob.getName());
+            JobExecution lastJobExecution = lastJobInstance == null ? null : jobExplorer.getLastJobExecution(lastJobInstance);
+            if (lastJobExecution != null && (lastJobExecution.getStatus() == BatchStatus.FAILED
+                    || lastJobExecution.getStatus() == BatchStatus.STOPPED)) {
+                return lastJobExecution.getJobParameters();
+            }
+            SourceDatabaseUtils.createUserScoreTableIfNotExists(new JdbcTemplate(dataSource), transactionManager);
+            return buildUniqueJobParameters(options);
+        });
+    }
+
+    /*
+    * Running, waiting and recently finished submissions with their progress
+     */
+    @GetMapping("/jobs")
+    public List<JobSubmissionStatus> jobs(){
+        return jobSubmissionScheduler.statuses();
+    }
+
+    @GetMapping("/jobs/{submissionId}")
+    public JobSubmissionStatus job(@PathVariable long submissionId){
+        JobSubmissionStatus status = jobSubmissionScheduler.status(submissionId);
+        if (status == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No submission " + submissionId);
+        }
+        return status;
+    }
+
+    /*
+    * Full runs start from an empty user_score, emptied right before the job starts
+     */
+    private String submitFullRun(Job job, Map<String, String> jobOptions){
+        Map<String, String> options = Map.copyOf(jobOptions);
+        return submit(job, options, () -> {
+            prepareEmptyResultTable();
+            return buildUniqueJobParameters(options);
+        });
+    }
+
+    private String submit(Job job, Map<String, String> options, Callable<JobParameters> preparation){
+        JobSubmissionStatus status = jobSubmissionScheduler.submit(job, options, preparation);
+        return "Successfully queued as submission " + status.submissionId() + ", see /jobs/" + status.submissionId() + "\n";
     }
 
     private void prepareEmptyResultTable(){
@@ -72,9 +198,13 @@ public class ApplicationController {
         SourceDatabaseUtils.createUserScoreTable(jdbcTemplate, transactionManager);
     }
 
-    private static JobParameters buildUniqueJobParameters(){
-        return new JobParametersBuilder()
-                .addString(UUID.randomUUID().toString(), UUID.randomUUID().toString())
-                .toJobParameters();
+    /*
+    * Request parameters (e.g. readerMode=cursor&fetchSize=5000) are passed through as job parameters
+     */
+    private static JobParameters buildUniqueJobParameters(Map<String, String> jobOptions){
+        JobParametersBuilder jobParametersBuilder = new JobParametersBuilder()
+                .addString(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        jobOptions.forEach(jobParametersBuilder::addString);
+        return jobParametersBuilder.toJobParameters();
     }
 }
@@ -0,0 +1,47 @@
+package spring.batch.actionCalculation.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import spring.batch.actionCalculation.cache.UserScoreCache;
+
+import java.util.Map;
+
+
+/*
+* Score lookups, answered as {"<userId>": score} from the score cache
+ */
+@RestController
+public class UserScoreController {
+
+    private static final int MAX_BULK_USER_IDS = 1000;
+
+    @Autowired
+    @Qualifier("userScoreCache")
+    private UserScoreCache userScoreCache;
+
+    @GetMapping("/scores/{userId}")
+    public Map<Long, Double> score(@PathVariable long userId){
+        Double score = userScoreCache.get(userId);
+        if (score == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No score for user " + userId);
+        }
+        return Map.of(userId, score);
+    }
+
+    /*
+    * e.g. /scores?userIds=1,2,3; users without a score are left out
+     */
+    @GetMapping("/scores")
+    public Map<Long, Double> scores(@RequestParam long[] userIds){
+        if (userIds.length > MAX_BULK_USER_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_BULK_USER_IDS + " users per lookup");
+        }
+        return userScoreCache.getAll(userIds);
+    }
+}
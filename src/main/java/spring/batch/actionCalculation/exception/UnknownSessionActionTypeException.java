@@ -0,0 +1,12 @@
+package spring.batch.actionCalculation.exception;
+
+/**
+ * A session action of a type the calculation does not know. Skippable: the row is set aside in the
+ * dead-letter table instead of failing the step.
+ */
+public class UnknownSessionActionTypeException extends RuntimeException {
+
+    public UnknownSessionActionTypeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,199 @@
+package spring.batch.actionCalculation.listener;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.Chunk;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the duration of every committed chunk, from the first read to the commit, as a timer tagged with
+ * the job and step name. Partitions of a step share the timer of the step. Chunks of multithreaded steps
+ * run on several threads, so the timings are kept per thread.
+ * <p>
+ * The chunk is also split into its phases: reading, processing, writing, the job repository bookkeeping
+ * between the write and the commit, and the commit itself. Registered as a {@link ChunkListener} the step
+ * builder picks up the item listener callbacks as well.
+ */
+public class ChunkTimingListener implements ChunkListener, ItemReadListener<Object>, ItemProcessListener<Object, Object>, ItemWriteListener<Object> {
+
+    public static final String CHUNK_TIMER_NAME = "action.calculation.chunk";
+    public static final String CHUNK_READ_TIMER_NAME = CHUNK_TIMER_NAME + ".read";
+    public static final String CHUNK_PROCESS_TIMER_NAME = CHUNK_TIMER_NAME + ".process";
+    public static final String CHUNK_WRITE_TIMER_NAME = CHUNK_TIMER_NAME + ".write";
+    public static final String CHUNK_REPOSITORY_TIMER_NAME = CHUNK_TIMER_NAME + ".repository";
+    public static final String CHUNK_COMMIT_TIMER_NAME = CHUNK_TIMER_NAME + ".commit";
+
+    private final MeterRegistry meterRegistry;
+    private final ThreadLocal<ChunkTiming> chunkTiming = new ThreadLocal<>();
+
+    public ChunkTimingListener(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        ChunkTiming timing = new ChunkTiming(Timer.start(meterRegistry));
+        chunkTiming.set(timing);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(timing);
+        }
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        ChunkTiming timing = chunkTiming.get();
+        chunkTiming.remove();
+        if (timing == null) {
+            return;
+        }
+        String jobName = context.getStepContext().getJobName();
+        String stepName = stepNameOf(context);
+        timing.chunkSample.stop(timer(CHUNK_TIMER_NAME, jobName, stepName));
+        timing.endRead();
+        timing.endProcess();
+        record(CHUNK_READ_TIMER_NAME, jobName, stepName, timing.readNanos);
+        record(CHUNK_PROCESS_TIMER_NAME, jobName, stepName, timing.processNanos);
+        if (timing.writeEnd > 0) {
+            record(CHUNK_WRITE_TIMER_NAME, jobName, stepName, timing.writeEnd - timing.writeStart);
+            if (timing.commitEnd > 0) {
+                record(CHUNK_REPOSITORY_TIMER_NAME, jobName, stepName, timing.commitStart - timing.writeEnd);
+                record(CHUNK_COMMIT_TIMER_NAME, jobName, stepName, timing.commitEnd - timing.commitStart);
+            }
+        }
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        chunkTiming.remove();
+    }
+
+    @Override
+    public void beforeRead() {
+        ChunkTiming timing = chunkTiming.get();
+        if (timing != null) {
+            timing.readStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterRead(Object item) {
+        ChunkTiming timing = chunkTiming.get();
+        if (timing != null) {
+            timing.endRead();
+        }
+    }
+
+    @Override
+    public void onReadError(Exception ex) {
+        afterRead(null);
+    }
+
+    @Override
+    public void beforeProcess(Object item) {
+        ChunkTiming timing = chunkTiming.get();
+        if (timing != null) {
+            // The read returning the end of the input is not followed by afterRead
+            timing.endRead();
+            timing.processStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterProcess(Object item, Object result) {
+        ChunkTiming timing = chunkTiming.get();
+        if (timing != null) {
+            timing.endProcess();
+        }
+    }
+
+    @Override
+    public void onProcessError(Object item, Exception e) {
+        afterProcess(item, null);
+    }
+
+    @Override
+    public void beforeWrite(Chunk<?> items) {
+        ChunkTiming timing = chunkTiming.get();
+        if (timing != null) {
+            timing.endRead();
+            timing.endProcess();
+            timing.writeStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void afterWrite(Chunk<?> items) {
+        ChunkTiming timing = chunkTiming.get();
+        if (timing != null) {
+            timing.writeEnd = System.nanoTime();
+        }
+    }
+
+    private void record(String timerName, String jobName, String stepName, long nanos) {
+        timer(timerName, jobName, stepName).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String timerName, String jobName, String stepName) {
+        return Timer.builder(timerName)
+                .tag("job", jobName)
+                .tag("step", stepName)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+    }
+
+    private static String stepNameOf(ChunkContext context) {
+        // Partition step executions are named <step>:<partition>
+        return StepMetricsListener.stepNameOf(context.getStepContext().getStepName());
+    }
+
+    private static class ChunkTiming implements TransactionSynchronization {
+
+        private final Timer.Sample chunkSample;
+        private long readStart;
+        private long readNanos;
+        private long processStart;
+        private long processNanos;
+        private long writeStart;
+        private long writeEnd;
+        private long commitStart;
+        private long commitEnd;
+
+        private ChunkTiming(Timer.Sample chunkSample) {
+            this.chunkSample = chunkSample;
+        }
+
+        private void endRead() {
+            if (readStart != 0) {
+                readNanos += System.nanoTime() - readStart;
+                readStart = 0;
+            }
+        }
+
+        private void endProcess() {
+            if (processStart != 0) {
+                processNanos += System.nanoTime() - processStart;
+                processStart = 0;
+            }
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            commitStart = System.nanoTime();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_COMMITTED && commitStart > 0) {
+                commitEnd = System.nanoTime();
+            }
+        }
+    }
+}
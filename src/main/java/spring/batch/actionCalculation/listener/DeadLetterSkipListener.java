@@ -0,0 +1,80 @@
+package spring.batch.actionCalculation.listener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.SkipListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepContext;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import spring.batch.actionCalculation.model.SessionAction;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_DEAD_LETTER_TABLE_NAME;
+
+/**
+ * Sets skipped session actions aside in the dead-letter table together with the reason and the job execution.
+ * The step reports the skips of a chunk right before its commit, they are collected per transaction and inserted
+ * as one batch in the chunk transaction, so a dead letter is stored exactly when its chunk commits.
+ */
+public class DeadLetterSkipListener implements SkipListener<SessionAction, Object> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeadLetterSkipListener.class);
+
+    private static final String INSERT_DEAD_LETTER_QUERY = "insert into " + SESSION_ACTION_DEAD_LETTER_TABLE_NAME +
+            " (id, user_id, action_type, amount, job_execution_id, step_name, reason) values (?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DeadLetterSkipListener(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void onSkipInRead(Throwable t) {
+        // Nothing was read, so there is no row to set aside
+        LOGGER.warn("Skipped an unreadable session action", t);
+    }
+
+    @Override
+    public void onSkipInProcess(SessionAction item, Throwable t) {
+        StepContext stepContext = StepSynchronizationManager.getContext();
+        StepExecution stepExecution = stepContext == null ? null : stepContext.getStepExecution();
+        deadLetters().add(new Object[]{
+                item.id(), item.userId(), item.actionType(), item.amount(),
+                stepExecution == null ? null : stepExecution.getJobExecutionId(),
+                stepExecution == null ? null : stepExecution.getStepName(),
+                String.valueOf(t.getMessage())});
+    }
+
+    private List<Object[]> deadLetters() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Dead letters are written in the chunk transaction, none is active");
+        }
+        @SuppressWarnings("unchecked")
+        List<Object[]> deadLetters = (List<Object[]>) TransactionSynchronizationManager.getResource(this);
+        if (deadLetters == null) {
+            List<Object[]> chunkDeadLetters = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, chunkDeadLetters);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    jdbcTemplate.batchUpdate(INSERT_DEAD_LETTER_QUERY, chunkDeadLetters);
+                    LOGGER.warn("Set {} session actions aside in {}", chunkDeadLetters.size(), SESSION_ACTION_DEAD_LETTER_TABLE_NAME);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(DeadLetterSkipListener.this);
+                }
+            });
+            deadLetters = chunkDeadLetters;
+        }
+        return deadLetters;
+    }
+}
@@ -0,0 +1,105 @@
+package spring.batch.actionCalculation.listener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.*;
+
+/**
+ * Fixes the session_action id window (fromId, toId] a calculation run processes and keeps it in the job execution
+ * context. toId is the highest id when the run starts, so rows inserted while it runs are left to the next run.
+ * The toId of a completed run is the high-water mark: user_score holds the actions up to it.
+ * <p>
+ * A full run starts from 0 on an empty user_score, an incremental run starts from the high-water mark of the
+ * last run of any calculation job and applies its actions on top of the existing scores. It refuses to start
+ * when that run did not complete, as user_score then matches no high-water mark, and when that run rebuilt
+ * user_score from an export file, which fixes no window. The chunks commit together
+ * with the reader position, so a restart of a failed run continues with the same window after the last
+ * committed chunk and no action is applied twice.
+ */
+public class HighWaterMarkListener implements JobExecutionListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HighWaterMarkListener.class);
+
+    private final JobExplorer jobExplorer;
+    private final JobRepository jobRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean incremental;
+
+    public HighWaterMarkListener(JobExplorer jobExplorer, JobRepository jobRepository, DataSource dataSource, boolean incremental) {
+        this.jobExplorer = jobExplorer;
+        this.jobRepository = jobRepository;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.incremental = incremental;
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        ExecutionContext executionContext = jobExecution.getExecutionContext();
+        if (executionContext.containsKey(TO_ID)) {
+            // A restart carries over the context of the failed execution
+            LOGGER.info("Restarted run continues with session actions {}..{}",
+                    executionContext.getLong(FROM_ID) + 1, executionContext.getLong(TO_ID));
+            return;
+        }
+        long fromId = incremental ? lastHighWaterMark(jobExecution) : 0L;
+        long toId = Math.max(fromId, jdbcTemplate.queryForObject(
+                "select coalesce(max(id), 0) from " + SESSION_ACTION_TABLE_NAME, Long.class));
+        executionContext.putLong(FROM_ID, fromId);
+        executionContext.putLong(TO_ID, toId);
+        // Stored right away, partitions running on other nodes read the window from the job repository
+        jobRepository.updateExecutionContext(jobExecution);
+        LOGGER.info("{} run processes session actions {}..{}", incremental ? "Incremental" : "Full", fromId + 1, toId);
+    }
+
+    private long lastHighWaterMark(JobExecution currentExecution) {
+        JobExecution lastExecution = null;
+        for (String jobName : jobExplorer.getJobNames()) {
+            JobExecution jobLastExecution = lastExecution(jobName, currentExecution);
+            if (jobLastExecution != null && (lastExecution == null
+                    || jobLastExecution.getCreateTime().isAfter(lastExecution.getCreateTime()))) {
+                lastExecution = jobLastExecution;
+            }
+        }
+        if (lastExecution != null && !lastExecution.getExecutionContext().containsKey(TO_ID)) {
+            // The file job reads an export instead of session_action, its scores match no session_action id
+            throw new IllegalStateException("Last run " + lastExecution.getJobInstance().getJobName() + " (execution "
+                    + lastExecution.getId() + ") rebuilt " + USER_SCORE_TABLE_NAME + " without a session action window, "
+                    + "run a full calculation before the next incremental one");
+        }
+        if (lastExecution != null) {
+            if (lastExecution.getStatus() != BatchStatus.COMPLETED) {
+                // A failed full run may have truncated the scores, a failed incremental run applied part of its window
+                throw new IllegalStateException("Last run " + lastExecution.getJobInstance().getJobName() + " (execution "
+                        + lastExecution.getId() + ") ended " + lastExecution.getStatus() + ", restart or rerun it first");
+            }
+            return lastExecution.getExecutionContext().getLong(TO_ID);
+        }
+        Long scoredUsers = jdbcTemplate.queryForObject("select count(*) from " + USER_SCORE_TABLE_NAME, Long.class);
+        if (scoredUsers != null && scoredUsers > 0) {
+            throw new IllegalStateException("No run records which session actions " + USER_SCORE_TABLE_NAME
+                    + " already holds, run a full calculation first");
+        }
+        return 0L;
+    }
+
+    private JobExecution lastExecution(String jobName, JobExecution currentExecution) {
+        // The newest instance is the one of the current run when it belongs to this job
+        for (JobInstance jobInstance : jobExplorer.getJobInstances(jobName, 0, 2)) {
+            if (!jobInstance.getId().equals(currentExecution.getJobInstance().getId())) {
+                return jobExplorer.getLastJobExecution(jobInstance);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+package spring.batch.actionCalculation.listener;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.explore.JobExplorer;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Records the duration and the throughput (written items per second) of every step execution, tagged with
+ * the job, the step and the partition. On the manager step of a partitioned step it also records the skew
+ * between the partitions: the slowest partition's duration and the biggest partition's item count relative
+ * to the mean. A skew of 1 is a perfectly balanced run, the step takes as long as its slowest partition.
+ * Partitions that ran on other nodes are read back from the job repository.
+ */
+public class StepMetricsListener implements StepExecutionListener {
+
+    public static final String STEP_TIMER_NAME = "action.calculation.step";
+    public static final String STEP_THROUGHPUT_NAME = "action.calculation.step.throughput";
+    public static final String PARTITION_SKEW_NAME = "action.calculation.partition.skew";
+
+    private static final String NO_PARTITION = "none";
+
+    private final MeterRegistry meterRegistry;
+    private final JobExplorer jobExplorer;
+
+    public StepMetricsListener(MeterRegistry meterRegistry, JobExplorer jobExplorer) {
+        this.meterRegistry = meterRegistry;
+        this.jobExplorer = jobExplorer;
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        // The end time is only set after the listeners ran
+        Duration duration = Duration.between(stepExecution.getStartTime(), LocalDateTime.now());
+        String jobName = stepExecution.getJobExecution().getJobInstance().getJobName();
+        String stepName = stepNameOf(stepExecution.getStepName());
+        String partition = partitionNameOf(stepExecution.getStepName());
+
+        Timer.builder(STEP_TIMER_NAME)
+                .tag("job", jobName)
+                .tag("step", stepName)
+                .tag("partition", partition)
+                .tag("status", stepExecution.getStatus().name())
+                .register(meterRegistry)
+                .record(duration);
+        DistributionSummary.builder(STEP_THROUGHPUT_NAME)
+                .baseUnit("items/s")
+                .tag("job", jobName)
+                .tag("step", stepName)
+                .tag("partition", partition)
+                .register(meterRegistry)
+                .record(stepExecution.getWriteCount() * 1000d / Math.max(1, duration.toMillis()));
+
+        if (NO_PARTITION.equals(partition)) {
+            recordPartitionSkew(stepExecution, jobName, stepName);
+        }
+        return stepExecution.getExitStatus();
+    }
+
+    private void recordPartitionSkew(StepExecution managerExecution, String jobName, String stepName) {
+        JobExecution jobExecution = managerExecution.getJobExecution();
+        List<StepExecution> partitions = finishedPartitions(jobExecution.getStepExecutions(), managerExecution);
+        if (partitions.size() < 2) {
+            // Only the partition requests were created here, the workers recorded their progress in the repository
+            JobExecution storedJobExecution = jobExplorer.getJobExecution(jobExecution.getId());
+            if (storedJobExecution == null) {
+                return;
+            }
+            partitions = finishedPartitions(storedJobExecution.getStepExecutions(), managerExecution);
+            if (partitions.size() < 2) {
+                return;
+            }
+        }
+        double maxMillis = 0;
+        double totalMillis = 0;
+        double maxItems = 0;
+        double totalItems = 0;
+        for (StepExecution partition : partitions) {
+            double millis = Duration.between(partition.getStartTime(), partition.getEndTime()).toMillis();
+            maxMillis = Math.max(maxMillis, millis);
+            totalMillis += millis;
+            maxItems = Math.max(maxItems, partition.getWriteCount());
+            totalItems += partition.getWriteCount();
+        }
+        recordSkew(jobName, stepName, "duration", maxMillis, totalMillis / partitions.size());
+        recordSkew(jobName, stepName, "items", maxItems, totalItems / partitions.size());
+    }
+
+    private static List<StepExecution> finishedPartitions(Collection<StepExecution> stepExecutions, StepExecution managerExecution) {
+        return stepExecutions.stream()
+                .filter(execution -> execution.getStepName().indexOf(':') >= 0)
+                .filter(execution -> execution.getStartTime() != null && execution.getEndTime() != null)
+                .filter(execution -> !execution.getStartTime().isBefore(managerExecution.getStartTime()))
+                .toList();
+    }
+
+    private void recordSkew(String jobName, String stepName, String measure, double max, double mean) {
+        if (mean > 0) {
+            DistributionSummary.builder(PARTITION_SKEW_NAME)
+                    .tag("job", jobName)
+                    .tag("step", stepName)
+                    .tag("measure", measure)
+                    .register(meterRegistry)
+                    .record(max / mean);
+        }
+    }
+
+    /*
+    * Partition step executions are named <step>:<partition>
+     */
+    static String stepNameOf(String stepExecutionName) {
+        int partitionSeparator = stepExecutionName.indexOf(':');
+        return partitionSeparator < 0 ? stepExecutionName : stepExecutionName.substring(0, partitionSeparator);
+    }
+
+    private static String partitionNameOf(String stepExecutionName) {
+        int partitionSeparator = stepExecutionName.indexOf(':');
+        return partitionSeparator < 0 ? NO_PARTITION : stepExecutionName.substring(partitionSeparator + 1);
+    }
+}
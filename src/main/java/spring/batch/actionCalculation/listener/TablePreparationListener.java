@@ -0,0 +1,43 @@
+package spring.batch.actionCalculation.listener;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Creates the tables and functions a job's steps rely on before the job starts, instead of while the application
+ * context starts, so a node only touches the schema for the jobs it actually runs. The preparations are
+ * idempotent, a restarted or concurrent run finds everything in place.
+ */
+public class TablePreparationListener implements JobExecutionListener {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
+    private final List<TablePreparation> preparations;
+
+    public TablePreparationListener(DataSource dataSource, PlatformTransactionManager transactionManager,
+                                    TablePreparation... preparations) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionManager = transactionManager;
+        this.preparations = List.of(preparations);
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        for (TablePreparation preparation : preparations) {
+            preparation.prepare(jdbcTemplate, transactionManager);
+        }
+    }
+
+    /**
+     * Same shape as the create methods of {@link spring.batch.actionCalculation.utils.SourceDatabaseUtils}
+     */
+    @FunctionalInterface
+    public interface TablePreparation {
+        void prepare(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager);
+    }
+}
@@ -0,0 +1,71 @@
+package spring.batch.actionCalculation.listener;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import spring.batch.actionCalculation.cache.UserScoreCache;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.FROM_ID;
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_TABLE_NAME;
+import static spring.batch.actionCalculation.constants.CommonConstants.TO_ID;
+
+/**
+ * Keeps the {@link UserScoreCache} in line with user_score: a full run replaces the cached scores once it
+ * completed, an incremental run invalidates the users with session actions in its window, whether it completed
+ * or not. Has to be registered after the {@link HighWaterMarkListener}, which fixes the window. The caches of other
+ * nodes notice the job in the job repository.
+ */
+public class UserScoreCacheListener implements JobExecutionListener {
+
+    private static final String WINDOW_USERS_QUERY = "select distinct user_id from " + SESSION_ACTION_TABLE_NAME + " where id > ? and id <= ?";
+
+    private final UserScoreCache userScoreCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Long, Boolean> rebuilding = new ConcurrentHashMap<>();
+
+    public UserScoreCacheListener(UserScoreCache userScoreCache, DataSource dataSource) {
+        this.userScoreCache = userScoreCache;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        if (!incremental(jobExecution)) {
+            rebuilding.put(jobExecution.getId(), Boolean.TRUE);
+            userScoreCache.rebuildStarted();
+        }
+    }
+
+    @Override
+    public void afterJob(JobExecution jobExecution) {
+        try {
+            if (rebuilding.remove(jobExecution.getId()) != null) {
+                userScoreCache.rebuildEnded(jobExecution.getStatus() == BatchStatus.COMPLETED);
+            } else if (incremental(jobExecution)) {
+                ExecutionContext executionContext = jobExecution.getExecutionContext();
+                long[] userIds = jdbcTemplate.queryForList(WINDOW_USERS_QUERY, Long.class,
+                        executionContext.getLong(FROM_ID), executionContext.getLong(TO_ID)).stream()
+                        .mapToLong(Long::longValue)
+                        .toArray();
+                userScoreCache.invalidate(userIds);
+            }
+        } finally {
+            // Tells the cache this end is no job of another node once the job repository shows it
+            userScoreCache.jobEnded();
+        }
+    }
+
+    /*
+    * Full runs start from id 0, the file job keeps no window at all
+     */
+    private static boolean incremental(JobExecution jobExecution) {
+        ExecutionContext executionContext = jobExecution.getExecutionContext();
+        return executionContext.containsKey(FROM_ID) && executionContext.getLong(FROM_ID) > 0;
+    }
+}
@@ -0,0 +1,62 @@
+package spring.batch.actionCalculation.model;
+
+import spring.batch.actionCalculation.constants.CommonConstants;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Session action types as one byte codes. The code is computed by the select, so rows are mapped without
+ * materializing the action_type string.
+ */
+public enum ActionType {
+    PLUS((byte) 0, CommonConstants.PLUS_TYPE),
+    MULTI((byte) 1, CommonConstants.MULTI_TYPE);
+
+    public static final byte UNKNOWN_CODE = -1;
+
+    // Column expression selecting the code of action_type, UNKNOWN_CODE for any other value
+    public static final String CODE_COLUMN = Arrays.stream(values())
+            .map(actionType -> "when '" + actionType.typeName + "' then " + actionType.code + " ")
+            .collect(Collectors.joining("", "case action_type ", "else " + UNKNOWN_CODE + " end"));
+
+    private final byte code;
+    private final String typeName;
+
+    ActionType(byte code, String typeName) {
+        this.code = code;
+        this.typeName = typeName;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public String typeName() {
+        return typeName;
+    }
+
+    /**
+     * The code of the given action_type value, {@link #UNKNOWN_CODE} for any other value
+     */
+    public static byte codeOf(String typeName) {
+        for (ActionType actionType : values()) {
+            if (actionType.typeName.equals(typeName)) {
+                return actionType.code;
+            }
+        }
+        return UNKNOWN_CODE;
+    }
+
+    /**
+     * The action_type value of the given code, null for an unknown code
+     */
+    public static String typeNameOf(byte code) {
+        for (ActionType actionType : values()) {
+            if (actionType.code == code) {
+                return actionType.typeName;
+            }
+        }
+        return null;
+    }
+}
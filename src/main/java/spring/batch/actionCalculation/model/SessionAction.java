@@ -7,6 +7,8 @@ import spring.batch.actionCalculation.constants.CommonConstants;
 
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public record SessionAction(
         long id,
@@ -14,22 +16,55 @@ public record SessionAction(
         String actionType,
         double amount
 ) {
+    public static final String SESSION_ACTION_COLUMNS = "id, user_id, action_type, amount";
+    // The record and its action type string as read from the driver, on a 64 bit JVM with compressed references
+    public static final int ESTIMATED_HEAP_BYTES = 96;
+
     public static PostgresPagingQueryProvider selectAllSessionActionsProvider(){
         PostgresPagingQueryProvider postgresPagingQueryProvider = new PostgresPagingQueryProvider();
-        postgresPagingQueryProvider.setSelectClause("id, user_id, action_type, amount");
+        postgresPagingQueryProvider.setSelectClause(SESSION_ACTION_COLUMNS);
         postgresPagingQueryProvider.setFromClause(CommonConstants.SESSION_ACTION_TABLE_NAME);
         postgresPagingQueryProvider.setSortKeys(Collections.singletonMap("id", Order.ASCENDING));
         return postgresPagingQueryProvider;
     }
 
+    /**
+     * @param whereClause optional filter, e.g. the partition and id window conditions; may be null
+     */
+    public static PostgresPagingQueryProvider selectSessionActionsProvider(String whereClause){
+        PostgresPagingQueryProvider postgresPagingQueryProvider = selectAllSessionActionsProvider();
+        postgresPagingQueryProvider.setWhereClause(whereClause);
+        return postgresPagingQueryProvider;
+    }
+
+    /**
+     * Orders by user first, so the actions of a user come one after another
+     */
+    public static PostgresPagingQueryProvider selectSessionActionsByUserProvider(String whereClause){
+        PostgresPagingQueryProvider postgresPagingQueryProvider = selectSessionActionsProvider(whereClause);
+        Map<String, Order> sortKeys = new LinkedHashMap<>();
+        sortKeys.put("user_id", Order.ASCENDING);
+        sortKeys.put("id", Order.ASCENDING);
+        postgresPagingQueryProvider.setSortKeys(sortKeys);
+        return postgresPagingQueryProvider;
+    }
+
     public static PostgresPagingQueryProvider selectPartitionOfSessionActionsProvider(
-            int partitionCount, int partitionIndex
+            long minUserId, long maxUserId
     ) {
         PostgresPagingQueryProvider postgresPagingQueryProvider = selectAllSessionActionsProvider();
-        postgresPagingQueryProvider.setWhereClause("user_id % " + partitionCount + "=" + partitionIndex);
+        postgresPagingQueryProvider.setWhereClause(partitionWhereClause(minUserId, maxUserId));
         return postgresPagingQueryProvider;
     }
 
+    public static String partitionWhereClause(long minUserId, long maxUserId) {
+        return "user_id between " + minUserId + " and " + maxUserId;
+    }
+
+    public static String idWindowWhereClause(long fromId, long toId) {
+        return "id > " + fromId + " and id <= " + toId;
+    }
+
     public static RowMapper<SessionAction> getSessionActionMapper(){
         return (rs, rowNum)-> new SessionAction(rs.getLong("id"), rs.getLong("user_id"),
                 rs.getString("action_type"), rs.getDouble("amount"));
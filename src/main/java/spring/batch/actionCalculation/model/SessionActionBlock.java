@@ -0,0 +1,56 @@
+package spring.batch.actionCalculation.model;
+
+/**
+ * Consecutive session actions held column by column in primitive arrays, one item for up to capacity rows
+ * instead of a record and an action type string per row.
+ */
+public final class SessionActionBlock {
+
+    private final long[] ids;
+    private final long[] userIds;
+    private final byte[] actionTypes;
+    private final double[] amounts;
+    private int size;
+
+    public SessionActionBlock(int capacity) {
+        ids = new long[capacity];
+        userIds = new long[capacity];
+        actionTypes = new byte[capacity];
+        amounts = new double[capacity];
+    }
+
+    /**
+     * @param actionType the {@link ActionType#code()}
+     */
+    public void add(long id, long userId, byte actionType, double amount) {
+        ids[size] = id;
+        userIds[size] = userId;
+        actionTypes[size] = actionType;
+        amounts[size] = amount;
+        size++;
+    }
+
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long id(int index) {
+        return ids[index];
+    }
+
+    public long userId(int index) {
+        return userIds[index];
+    }
+
+    public byte actionType(int index) {
+        return actionTypes[index];
+    }
+
+    public double amount(int index) {
+        return amounts[index];
+    }
+}
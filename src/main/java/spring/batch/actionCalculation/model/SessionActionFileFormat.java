@@ -0,0 +1,52 @@
+package spring.batch.actionCalculation.model;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Layouts of session action exports. Either way the file lists the session actions in id order, the order the
+ * actions of a user are applied in.
+ * <ul>
+ *     <li>csv: one {@code id,user_id,action_type,amount} line per action, optionally after a header line</li>
+ *     <li>binary: fixed-width big-endian records of id (long), user_id (long), the {@link ActionType#code()} (byte)
+ *     and amount (double)</li>
+ * </ul>
+ */
+public enum SessionActionFileFormat {
+    CSV,
+    BINARY;
+
+    public static final int BINARY_RECORD_BYTES = Long.BYTES + Long.BYTES + Byte.BYTES + Double.BYTES;
+
+    /**
+     * @param name the format name, e.g. a job parameter
+     */
+    public static SessionActionFileFormat of(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown session action file format: " + name + ", expected csv or binary", e);
+        }
+    }
+
+    /**
+     * Partitions of the file start at multiples of this many bytes
+     */
+    public int recordAlignment() {
+        return this == BINARY ? BINARY_RECORD_BYTES : 1;
+    }
+
+    public void write(SessionAction sessionAction, DataOutput output) throws IOException {
+        if (this == BINARY) {
+            output.writeLong(sessionAction.id());
+            output.writeLong(sessionAction.userId());
+            output.writeByte(ActionType.codeOf(sessionAction.actionType()));
+            output.writeDouble(sessionAction.amount());
+        } else {
+            output.write((sessionAction.id() + "," + sessionAction.userId() + "," + sessionAction.actionType() + ","
+                    + sessionAction.amount() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -3,7 +3,10 @@ package spring.batch.actionCalculation.model;
 
 import org.springframework.batch.item.database.ItemPreparedStatementSetter;
 
-import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_TABLE_NAME;
 
@@ -14,12 +17,32 @@ public record UserScoreUpdate(
 ) {
 
     public static ItemPreparedStatementSetter<UserScoreUpdate> UPDATE_USER_SCORE_PARAMETER_SETTER = (item, ps) -> {
-        ps.setObject(1, item.userId(), Types.BIGINT);
-        ps.setObject(2, item.add(), Types.DOUBLE);
-        ps.setObject(3, item.multiply(), Types.DOUBLE);
-        ps.setObject(4, item.add(), Types.DOUBLE);
+        ps.setLong(1, item.userId());
+        ps.setDouble(2, item.add());
+        ps.setDouble(3, item.multiply());
+        ps.setDouble(4, item.add());
     };
     public static String UPDATE_USER_SCORE_QUERY = "insert into "+USER_SCORE_TABLE_NAME+" (user_id, score) values (?, ?) " +
             "on conflict (user_id) do " +
             "update set score = "+USER_SCORE_TABLE_NAME+".score * ? + ?";
+
+    /**
+     * Composes this update with the one applied right after it.
+     * (score * m1 + a1) * m2 + a2 = score * (m1 * m2) + (a1 * m2 + a2)
+     */
+    public UserScoreUpdate andThen(UserScoreUpdate next) {
+        return new UserScoreUpdate(userId, add * next.multiply() + next.add(), multiply * next.multiply());
+    }
+
+    /**
+     * Collapses the given updates into a single update per user, keeping the order in which
+     * the updates of every user were supplied. Users are returned in order of first appearance.
+     */
+    public static List<UserScoreUpdate> foldByUser(Iterable<? extends UserScoreUpdate> updates) {
+        Map<Long, UserScoreUpdate> foldedUpdates = new LinkedHashMap<>();
+        for (UserScoreUpdate update : updates) {
+            foldedUpdates.merge(update.userId(), update, UserScoreUpdate::andThen);
+        }
+        return new ArrayList<>(foldedUpdates.values());
+    }
 }
@@ -0,0 +1,79 @@
+package spring.batch.actionCalculation.model;
+
+import spring.batch.actionCalculation.aggregation.LongDoubleHashMap;
+
+import java.util.Arrays;
+
+/**
+ * One (add, multiply) pair per user held in primitive arrays, the columnar counterpart of folding a list of
+ * {@link UserScoreUpdate}. Updates have to be applied in session action id order, users keep the order of
+ * their first update.
+ */
+public final class UserScoreUpdateBlock {
+
+    private long[] userIds;
+    private double[] adds;
+    private double[] multiplies;
+    private int size;
+
+    // Position of every user in the arrays, positions are far below 2^53 and exact as doubles
+    private final LongDoubleHashMap positions;
+
+    public UserScoreUpdateBlock(int expectedUserCount) {
+        int capacity = Math.max(1, expectedUserCount);
+        userIds = new long[capacity];
+        adds = new double[capacity];
+        multiplies = new double[capacity];
+        positions = new LongDoubleHashMap(capacity);
+    }
+
+    /**
+     * Applies score = score * multiply + add to the user after all updates applied so far
+     */
+    public void apply(long userId, double add, double multiply) {
+        int position = (int) positions.get(userId, -1);
+        if (position < 0) {
+            if (size == userIds.length) {
+                grow();
+            }
+            position = size++;
+            userIds[position] = userId;
+            adds[position] = add;
+            multiplies[position] = multiply;
+            positions.put(userId, position);
+        } else {
+            // (score * m1 + a1) * m2 + a2 = score * (m1 * m2) + (a1 * m2 + a2)
+            adds[position] = adds[position] * multiply + add;
+            multiplies[position] *= multiply;
+        }
+    }
+
+    public void applyAll(UserScoreUpdateBlock next) {
+        for (int i = 0; i < next.size; i++) {
+            apply(next.userIds[i], next.adds[i], next.multiplies[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long userId(int index) {
+        return userIds[index];
+    }
+
+    public double add(int index) {
+        return adds[index];
+    }
+
+    public double multiply(int index) {
+        return multiplies[index];
+    }
+
+    private void grow() {
+        int capacity = userIds.length << 1;
+        userIds = Arrays.copyOf(userIds, capacity);
+        adds = Arrays.copyOf(adds, capacity);
+        multiplies = Arrays.copyOf(multiplies, capacity);
+    }
+}
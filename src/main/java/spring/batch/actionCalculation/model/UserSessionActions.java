@@ -0,0 +1,12 @@
+package spring.batch.actionCalculation.model;
+
+import java.util.List;
+
+/**
+ * All session actions of one user, in id order.
+ */
+public record UserSessionActions(
+        long userId,
+        List<SessionAction> actions
+) {
+}
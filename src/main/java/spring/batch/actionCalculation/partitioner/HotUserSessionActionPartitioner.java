@@ -0,0 +1,118 @@
+package spring.batch.actionCalculation.partitioner;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.*;
+
+/**
+ * Splits session actions like {@link SessionActionPartitioner}, except for hot users: a user holding more than half
+ * of a partition's share of the rows gets partitions of their own, each holding a contiguous id range of the
+ * user's actions. So no partition is much larger than the share, however skewed the data is. The other users
+ * are split into user ranges that leave the hot users out.
+ * <p>
+ * The actions of a hot user span several partitions, so the partitions only fold their own actions and have to be
+ * composed in partition index order afterwards. The slices of a hot user are numbered in id order for that.
+ */
+public class HotUserSessionActionPartitioner implements Partitioner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotUserSessionActionPartitioner.class);
+
+    private static final String HOT_USERS_QUERY = "select user_id, count(*) as action_count from " + SESSION_ACTION_TABLE_NAME +
+            "%s group by user_id having count(*) > ? order by user_id";
+
+    // Cuts the actions of one user into id ranges of about the same number of rows
+    private static final String USER_SLICES_QUERY = "select min(id) as min_id, max(id) as max_id, count(*) as action_count from (" +
+            "select id, ntile(?) over (order by id) as slice from " + SESSION_ACTION_TABLE_NAME + " where user_id = ?%s" +
+            ") slices group by slice order by min_id";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final long minRowsPerPartition;
+    private final String whereClause;
+
+    /**
+     * @param whereClause optional filter of the rows to split; may be null
+     */
+    public HotUserSessionActionPartitioner(DataSource dataSource, long minRowsPerPartition, String whereClause) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.minRowsPerPartition = minRowsPerPartition;
+        this.whereClause = whereClause;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        long rowCount = jdbcTemplate.queryForObject("select count(*) from " + SESSION_ACTION_TABLE_NAME + where(whereClause), Long.class);
+        int partitionCount = (int) Math.max(1, Math.min(gridSize, rowCount / minRowsPerPartition));
+        long partitionShare = Math.max(1, rowCount / partitionCount);
+        List<HotUser> hotUsers = partitionCount == 1
+                ? List.of()
+                : jdbcTemplate.query(HOT_USERS_QUERY.formatted(where(whereClause)),
+                (rs, rowNum) -> new HotUser(rs.getLong("user_id"), rs.getLong("action_count")),
+                partitionShare / 2);
+        if (hotUsers.isEmpty()) {
+            return new SessionActionPartitioner(dataSource, minRowsPerPartition, whereClause).partition(gridSize);
+        }
+
+        // The other users get as many partitions as their share of the rows
+        long hotRowCount = hotUsers.stream().mapToLong(HotUser::actionCount).sum();
+        String otherUsersWhereClause = "user_id not in (" + hotUsers.stream()
+                .map(hotUser -> String.valueOf(hotUser.userId()))
+                .collect(Collectors.joining(", ")) + ")";
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        if (hotRowCount < rowCount) {
+            int otherGridSize = (int) Math.max(1, Math.round((double) (rowCount - hotRowCount) / partitionShare));
+            String otherWhereClause = whereClause == null ? otherUsersWhereClause : whereClause + " and " + otherUsersWhereClause;
+            for (ExecutionContext executionContext : new SessionActionPartitioner(dataSource, 1, otherWhereClause)
+                    .partition(otherGridSize).values()) {
+                executionContext.putString(PARTITION_WHERE_CLAUSE, otherUsersWhereClause);
+                partitions.put(PARTITION_NAME_PREFIX + executionContext.getInt(PARTITION_INDEX), executionContext);
+            }
+        }
+
+        int otherPartitionCount = partitions.size();
+        int partitionIndex = otherPartitionCount;
+        for (HotUser hotUser : hotUsers) {
+            int sliceCount = (int) Math.max(1, Math.round((double) hotUser.actionCount() / partitionShare));
+            List<ExecutionContext> slices = jdbcTemplate.query(
+                    USER_SLICES_QUERY.formatted(whereClause == null ? "" : " and (" + whereClause + ")"),
+                    (rs, rowNum) -> {
+                        ExecutionContext executionContext = new ExecutionContext();
+                        executionContext.putString(PARTITION_WHERE_CLAUSE, "user_id = " + hotUser.userId() +
+                                " and id between " + rs.getLong("min_id") + " and " + rs.getLong("max_id"));
+                        LOGGER.info("Hot user {} has ids {}..{} with {} session actions in a partition of their own",
+                                hotUser.userId(), rs.getLong("min_id"), rs.getLong("max_id"), rs.getLong("action_count"));
+                        return executionContext;
+                    },
+                    sliceCount, hotUser.userId());
+            for (ExecutionContext executionContext : slices) {
+                executionContext.putInt(PARTITION_INDEX, partitionIndex);
+                partitions.put(PARTITION_NAME_PREFIX + partitionIndex, executionContext);
+                partitionIndex++;
+            }
+        }
+        for (ExecutionContext executionContext : partitions.values()) {
+            executionContext.putInt(PARTITION_COUNT, partitions.size());
+        }
+        LOGGER.info("Split {} session actions into {} partitions, {} of them for {} hot users",
+                rowCount, partitions.size(), partitions.size() - otherPartitionCount, hotUsers.size());
+        return partitions;
+    }
+
+    private static String where(String whereClause) {
+        return whereClause == null ? "" : " where " + whereClause;
+    }
+
+    private record HotUser(long userId, long actionCount) {
+    }
+}
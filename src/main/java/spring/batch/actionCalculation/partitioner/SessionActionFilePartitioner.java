@@ -0,0 +1,66 @@
+package spring.batch.actionCalculation.partitioner;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import spring.batch.actionCalculation.model.SessionActionFileFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.*;
+
+/**
+ * Splits a session action export into contiguous byte ranges of about the same size, aligned to the records of
+ * the format. Unlike the user ranges of the table, the actions of a user can span several ranges, so every
+ * partition only folds its own actions and the partitions are composed in file order afterwards.
+ * The grid size passed in is an upper bound, small files get fewer partitions.
+ */
+public class SessionActionFilePartitioner implements Partitioner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionActionFilePartitioner.class);
+
+    private final Path file;
+    private final SessionActionFileFormat format;
+    private final long minBytesPerPartition;
+
+    public SessionActionFilePartitioner(Path file, SessionActionFileFormat format, long minBytesPerPartition) {
+        this.file = file;
+        this.format = format;
+        this.minBytesPerPartition = minBytesPerPartition;
+    }
+
+    @Override
+    public Map<String, ExecutionContext> partition(int gridSize) {
+        long fileSize;
+        try {
+            fileSize = Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to size session action file " + file, e);
+        }
+        int partitionCount = (int) Math.max(1, Math.min(gridSize, fileSize / minBytesPerPartition));
+        long alignment = format.recordAlignment();
+
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        long startOffset = 0;
+        for (int i = 0; i < partitionCount; i++) {
+            long endOffset = i == partitionCount - 1
+                    ? fileSize
+                    : fileSize / partitionCount * (i + 1) / alignment * alignment;
+            ExecutionContext executionContext = new ExecutionContext();
+            executionContext.putInt(PARTITION_COUNT, partitionCount);
+            executionContext.putInt(PARTITION_INDEX, i);
+            executionContext.putLong(FILE_START_OFFSET, startOffset);
+            executionContext.putLong(FILE_END_OFFSET, endOffset);
+            partitions.put(PARTITION_NAME_PREFIX + i, executionContext);
+            LOGGER.info("Partition {} covers bytes {}..{} of {}", i, startOffset, endOffset, file);
+            startOffset = endOffset;
+        }
+        return partitions;
+    }
+}
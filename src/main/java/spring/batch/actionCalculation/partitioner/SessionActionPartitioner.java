@@ -1,23 +1,85 @@
 package spring.batch.actionCalculation.partitioner;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.batch.core.partition.support.Partitioner;
 import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static spring.batch.actionCalculation.constants.CommonConstants.*;
 
+/**
+ * Splits session actions into contiguous user_id ranges holding roughly the same number of rows. A user never
+ * spans two partitions, so every partition can apply the actions of its users in id order on its own, and the
+ * range condition can use the (user_id, id) index instead of scanning the whole table.
+ * The grid size passed in is an upper bound, the actual partition count also depends on the data volume.
+ * With a filter, e.g. the id window of an incremental run, only the matching rows are split.
+ */
 public class SessionActionPartitioner implements Partitioner {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionActionPartitioner.class);
+
+    // Assigns every user to a bucket by the number of rows of all users before it, then collapses buckets to ranges
+    private static final String USER_RANGES_QUERY = "select min(user_id) as min_user_id, max(user_id) as max_user_id, " +
+            "sum(action_count) as action_count from (" +
+            "select user_id, action_count, " +
+            "floor((sum(action_count) over (order by user_id) - action_count) * ? / sum(action_count) over ()) as bucket " +
+            "from (select user_id, count(*) as action_count from " + SESSION_ACTION_TABLE_NAME + "%s group by user_id) user_counts" +
+            ") bucketed group by bucket order by min_user_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long minRowsPerPartition;
+    private final String whereClause;
+
+    public SessionActionPartitioner(DataSource dataSource, long minRowsPerPartition) {
+        this(dataSource, minRowsPerPartition, null);
+    }
+
+    /**
+     * @param whereClause optional filter of the rows to split; may be null
+     */
+    public SessionActionPartitioner(DataSource dataSource, long minRowsPerPartition, String whereClause) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.minRowsPerPartition = minRowsPerPartition;
+        this.whereClause = whereClause == null ? "" : " where " + whereClause;
+    }
+
     @Override
     public Map<String, ExecutionContext> partition(int gridSize) {
-        return IntStream.range(0, gridSize).mapToObj(i->{
+        long rowCount = jdbcTemplate.queryForObject("select count(*) from " + SESSION_ACTION_TABLE_NAME + whereClause, Long.class);
+        int partitionCount = (int) Math.max(1, Math.min(gridSize, rowCount / minRowsPerPartition));
+
+        List<UserRange> userRanges = rowCount == 0
+                ? List.of()
+                : jdbcTemplate.query(USER_RANGES_QUERY.formatted(whereClause),
+                (rs, rowNum) -> new UserRange(rs.getLong("min_user_id"), rs.getLong("max_user_id"), rs.getLong("action_count")),
+                partitionCount);
+        if (userRanges.isEmpty()) {
+            userRanges = List.of(new UserRange(Long.MIN_VALUE, Long.MAX_VALUE, 0));
+        }
+
+        Map<String, ExecutionContext> partitions = new HashMap<>();
+        for (int i = 0; i < userRanges.size(); i++) {
+            // Stretch the ranges over the gaps between them, so users that show up later are still read
+            long minUserId = i == 0 ? Long.MIN_VALUE : userRanges.get(i).minUserId();
+            long maxUserId = i == userRanges.size() - 1 ? Long.MAX_VALUE : userRanges.get(i + 1).minUserId() - 1;
             ExecutionContext executionContext = new ExecutionContext();
-            executionContext.putInt(PARTITION_COUNT, gridSize);
+            executionContext.putInt(PARTITION_COUNT, userRanges.size());
             executionContext.putInt(PARTITION_INDEX, i);
-            return Map.entry(PARTITION_NAME_PREFIX + i, executionContext);
-        }).collect(Collectors.toMap(Map.Entry::getKey,Map.Entry::getValue ));
+            executionContext.putLong(MIN_USER_ID, minUserId);
+            executionContext.putLong(MAX_USER_ID, maxUserId);
+            partitions.put(PARTITION_NAME_PREFIX + i, executionContext);
+            LOGGER.info("Partition {} covers users {}..{} with {} session actions",
+                    i, userRanges.get(i).minUserId(), userRanges.get(i).maxUserId(), userRanges.get(i).actionCount());
+        }
+        return partitions;
+    }
+
+    private record UserRange(long minUserId, long maxUserId, long actionCount) {
     }
 }
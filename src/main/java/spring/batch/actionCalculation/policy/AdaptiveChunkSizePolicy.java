@@ -0,0 +1,151 @@
+package spring.batch.actionCalculation.policy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.context.RepeatContextSupport;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+
+/**
+ * Commit interval that follows the measured cost of a chunk. The time from the start of the write to the
+ * end of the commit is the window in which the written user_score rows stay locked, so it is kept around
+ * the target: the chunk grows while writing and committing it takes less, and shrinks when it takes more or
+ * when a chunk is rolled back. A single step change is at most a factor of two, always within the bounds.
+ * <p>
+ * Only full chunks teach the policy, the fixed cost of a commit would make the last, partial chunk look
+ * expensive. The current size is kept in the step execution context, a restart resumes with it.
+ * <p>
+ * Registered as a {@link ChunkListener} on the step it also receives the write callbacks. Chunks of a
+ * multithreaded step share one size, kept here in a volatile field instead of the plain one of the super class,
+ * the measurements are kept per thread.
+ */
+public class AdaptiveChunkSizePolicy extends SimpleCompletionPolicy implements ChunkListener, ItemWriteListener<Object> {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveChunkSizePolicy.class);
+
+    public static final String CHUNK_SIZE_KEY = "adaptiveChunk.size";
+
+    // Weight of the newest chunk in the moving average of the cost per item
+    private static final double SMOOTHING = 0.3;
+
+    private final int minChunkSize;
+    private final int maxChunkSize;
+    private final long targetNanos;
+
+    private final ThreadLocal<RepeatContext> chunkRepeatContext = new ThreadLocal<>();
+    private final ThreadLocal<Long> writeStart = new ThreadLocal<>();
+    private volatile boolean restored;
+    private volatile int chunkSize;
+    private double averageNanosPerItem;
+
+    public AdaptiveChunkSizePolicy(int minChunkSize, int maxChunkSize, long targetMillis) {
+        super(Math.max(1, minChunkSize));
+        if (maxChunkSize < minChunkSize) {
+            throw new IllegalArgumentException("maxChunkSize " + maxChunkSize + " is below minChunkSize " + minChunkSize);
+        }
+        this.minChunkSize = Math.max(1, minChunkSize);
+        this.maxChunkSize = maxChunkSize;
+        this.targetNanos = targetMillis * 1_000_000;
+        this.chunkSize = this.minChunkSize;
+    }
+
+    @Override
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context, RepeatStatus result) {
+        return result == null || !result.isContinuable() || isComplete(context);
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context) {
+        return context.getStartedCount() >= chunkSize;
+    }
+
+    @Override
+    public RepeatContext start(RepeatContext parent) {
+        RepeatContext context = super.start(parent);
+        chunkRepeatContext.set(context);
+        return context;
+    }
+
+    @Override
+    public void beforeChunk(ChunkContext context) {
+        if (!restored) {
+            restore(context.getStepContext().getStepExecution().getExecutionContext());
+        }
+        writeStart.remove();
+    }
+
+    @Override
+    public void beforeWrite(Chunk<?> items) {
+        writeStart.set(System.nanoTime());
+    }
+
+    @Override
+    public void afterChunk(ChunkContext context) {
+        Long start = writeStart.get();
+        RepeatContext repeatContext = chunkRepeatContext.get();
+        writeStart.remove();
+        chunkRepeatContext.remove();
+        if (start == null || !(repeatContext instanceof RepeatContextSupport chunk)) {
+            return;
+        }
+        int itemCount = chunk.getStartedCount();
+        if (itemCount > 0 && itemCount >= getChunkSize()) {
+            resize(System.nanoTime() - start, itemCount);
+        }
+        context.getStepContext().getStepExecution().getExecutionContext().putInt(CHUNK_SIZE_KEY, getChunkSize());
+    }
+
+    @Override
+    public void afterChunkError(ChunkContext context) {
+        writeStart.remove();
+        chunkRepeatContext.remove();
+        synchronized (this) {
+            int chunkSize = Math.max(minChunkSize, getChunkSize() / 2);
+            log.debug("Chunk rolled back, chunk size {} -> {}", getChunkSize(), chunkSize);
+            setChunkSize(chunkSize);
+        }
+    }
+
+    private synchronized void restore(ExecutionContext executionContext) {
+        if (!restored) {
+            if (executionContext.containsKey(CHUNK_SIZE_KEY)) {
+                setChunkSize(clamp(executionContext.getInt(CHUNK_SIZE_KEY)));
+            }
+            restored = true;
+        }
+    }
+
+    private synchronized void resize(long writeAndCommitNanos, int itemCount) {
+        double nanosPerItem = (double) writeAndCommitNanos / itemCount;
+        averageNanosPerItem = averageNanosPerItem == 0
+                ? nanosPerItem
+                : SMOOTHING * nanosPerItem + (1 - SMOOTHING) * averageNanosPerItem;
+        int chunkSize = getChunkSize();
+        long desired = (long) (targetNanos / averageNanosPerItem);
+        int resized = clamp(Math.max(chunkSize / 2, Math.min(2L * chunkSize, desired)));
+        if (resized != chunkSize) {
+            log.debug("Chunk of {} items written and committed in {} ms, chunk size {} -> {}",
+                    itemCount, writeAndCommitNanos / 1_000_000, chunkSize, resized);
+            setChunkSize(resized);
+        }
+    }
+
+    private int clamp(long chunkSize) {
+        return (int) Math.max(minChunkSize, Math.min(maxChunkSize, chunkSize));
+    }
+}
@@ -0,0 +1,47 @@
+package spring.batch.actionCalculation.policy;
+
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Retries a chunk when the database gave up on its transaction to let another one through: a deadlock, a
+ * serialization failure or a lock that could not be taken. Writers that run plain JDBC report these as
+ * SQLExceptions, so the SQL state is looked for along the causes as well as Spring's translated exceptions.
+ * Anything else is not retried.
+ */
+public class TransientDataAccessRetryPolicy extends SimpleRetryPolicy {
+
+    // serialization_failure, deadlock_detected, lock_not_available
+    private static final Set<String> TRANSIENT_SQL_STATES = Set.of("40001", "40P01", "55P03");
+
+    public TransientDataAccessRetryPolicy(int maxAttempts) {
+        super(maxAttempts);
+    }
+
+    @Override
+    public boolean canRetry(RetryContext context) {
+        Throwable lastThrowable = context.getLastThrowable();
+        return (lastThrowable == null || isTransient(lastThrowable)) && context.getRetryCount() < getMaxAttempts();
+    }
+
+    static boolean isTransient(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PessimisticLockingFailureException) {
+                return true;
+            }
+            // Batches report the failing statement as the next exception
+            for (SQLException sqlException = cause instanceof SQLException first ? first : null;
+                 sqlException != null; sqlException = sqlException.getNextException()) {
+                String sqlState = sqlException.getSQLState();
+                if (sqlState != null && TRANSIENT_SQL_STATES.contains(sqlState)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package spring.batch.actionCalculation.reader;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_TABLE_NAME;
+
+/**
+ * Streams session actions in id order through a server side Postgres cursor. Postgres only honours the fetch
+ * size when auto commit is off, so the reader keeps its own connection out of the step transaction for the
+ * whole step. Restart is keyset based: subclasses report the id of the last row they consumed, it is saved and
+ * the query resumes after it. Not thread safe, wrap it into a synchronized reader when it is shared between threads.
+ *
+ * @param <T> the item built from one or more rows
+ */
+public abstract class AbstractSessionActionCursorItemReader<T> extends ItemStreamSupport implements ItemStreamReader<T> {
+
+    public static final String LAST_ID_KEY = "last.id";
+
+    private final DataSource dataSource;
+    private final String columns;
+    private final String whereClause;
+    private final int fetchSize;
+
+    private Connection connection;
+    private PreparedStatement preparedStatement;
+    private ResultSet resultSet;
+    private long lastId;
+
+    /**
+     * @param columns the select list, the id has to be the first column
+     * @param whereClause optional additional filter, e.g. the partition condition; may be null
+     */
+    protected AbstractSessionActionCursorItemReader(DataSource dataSource, String columns, String whereClause, int fetchSize) {
+        this.dataSource = dataSource;
+        this.columns = columns;
+        this.whereClause = whereClause;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        lastId = executionContext.getLong(getExecutionContextKey(LAST_ID_KEY), 0L);
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            preparedStatement = connection.prepareStatement(buildQuery(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(fetchSize);
+            preparedStatement.setLong(1, lastId);
+            resultSet = preparedStatement.executeQuery();
+        } catch (SQLException e) {
+            close();
+            throw new ItemStreamException("Failed to open session action cursor after id " + lastId, e);
+        }
+    }
+
+    @Override
+    public T read() throws Exception {
+        return resultSet == null ? null : read(resultSet);
+    }
+
+    /**
+     * Builds the next item from the rows after the current one, null at the end of the rows
+     */
+    protected abstract T read(ResultSet resultSet) throws SQLException;
+
+    /**
+     * Called for every row taken into an item, the restart continues after the last one
+     */
+    protected final void consumed(long id) {
+        lastId = id;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        executionContext.putLong(getExecutionContextKey(LAST_ID_KEY), lastId);
+    }
+
+    @Override
+    public void close() {
+        JdbcUtils.closeResultSet(resultSet);
+        JdbcUtils.closeStatement(preparedStatement);
+        if (connection != null) {
+            try {
+                // Nothing was changed, ending the read only transaction releases the cursor on the server
+                connection.rollback();
+                connection.setReadOnly(false);
+            } catch (SQLException ignored) {
+                // The connection is closed right after, so a failed rollback is not worth reporting
+            }
+        }
+        JdbcUtils.closeConnection(connection);
+        resultSet = null;
+        preparedStatement = null;
+        connection = null;
+    }
+
+    private String buildQuery() {
+        return "select " + columns + " from " + SESSION_ACTION_TABLE_NAME +
+                " where id > ?" + (whereClause == null ? "" : " and (" + whereClause + ")") +
+                " order by id";
+    }
+}
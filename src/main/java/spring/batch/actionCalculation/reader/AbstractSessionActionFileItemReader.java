@@ -0,0 +1,135 @@
+package spring.batch.actionCalculation.reader;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+import spring.batch.actionCalculation.model.SessionAction;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads session actions from an export file through a memory-mapped window that slides along the file, so files
+ * beyond 2 GB are read without copying them through a stream buffer. A reader owns the records starting in its
+ * byte range; every partition of a file reads its own range. The offset after the last record read is saved for
+ * restart. Not thread safe, wrap it into a synchronized reader when it is shared between threads.
+ */
+public abstract class AbstractSessionActionFileItemReader extends ItemStreamSupport implements ItemStreamReader<SessionAction> {
+
+    private static final String OFFSET_KEY = "offset";
+    private static final long WINDOW_BYTES = 64L << 20;
+
+    private final Path file;
+    private final long startOffset;
+    private final long endOffset;
+
+    private FileChannel channel;
+    private long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long offset;
+
+    /**
+     * @param startOffset first byte of the range, records starting before it belong to the previous range
+     * @param endOffset end of the range, exclusive; the last record starting before it is read to its end
+     */
+    protected AbstractSessionActionFileItemReader(Path file, long startOffset, long endOffset) {
+        this.file = file;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            fileSize = channel.size();
+        } catch (IOException e) {
+            throw new ItemStreamException("Failed to open session action file " + file, e);
+        }
+        String offsetKey = getExecutionContextKey(OFFSET_KEY);
+        offset = executionContext.containsKey(offsetKey)
+                ? executionContext.getLong(offsetKey)
+                : firstRecordOffset(Math.min(startOffset, fileSize));
+    }
+
+    @Override
+    public SessionAction read() throws Exception {
+        SessionAction sessionAction = null;
+        while (sessionAction == null && offset < Math.min(endOffset, fileSize)) {
+            long recordStart = offset;
+            offset = recordEnd(recordStart);
+            sessionAction = read(recordStart, offset);
+        }
+        return sessionAction;
+    }
+
+    /**
+     * Offset of the first record starting at or after the given offset
+     */
+    protected abstract long firstRecordOffset(long offset);
+
+    /**
+     * Offset right after the record starting at the given offset
+     */
+    protected abstract long recordEnd(long recordStart);
+
+    /**
+     * Maps the record between the given offsets, null when it holds no session action, e.g. a header
+     */
+    protected abstract SessionAction read(long recordStart, long recordEnd);
+
+    protected final long fileSize() {
+        return fileSize;
+    }
+
+    protected final byte byteAt(long offset) {
+        int index = windowIndex(offset, 1);
+        return window.get(index);
+    }
+
+    /**
+     * Maps the given bytes if they are not yet, the index of the first one in {@link #window()} is returned
+     */
+    protected final int windowIndex(long offset, int length) {
+        if (window == null || offset < windowStart || offset + length > windowStart + window.limit()) {
+            if (offset + length > fileSize) {
+                throw new ItemStreamException("Session action file " + file + " ends inside the record at offset " + offset);
+            }
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Math.max(WINDOW_BYTES, length), fileSize - offset));
+            } catch (IOException e) {
+                throw new ItemStreamException("Failed to map session action file " + file + " at offset " + offset, e);
+            }
+            windowStart = offset;
+        }
+        return (int) (offset - windowStart);
+    }
+
+    protected final MappedByteBuffer window() {
+        return window;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        executionContext.putLong(getExecutionContextKey(OFFSET_KEY), offset);
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Only read from, nothing is lost
+            }
+        }
+        // The mapping is released once the buffer is collected
+        window = null;
+        channel = null;
+    }
+}
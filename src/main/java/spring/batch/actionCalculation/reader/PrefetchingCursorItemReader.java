@@ -0,0 +1,128 @@
+package spring.batch.actionCalculation.reader;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reads ahead of the step: a background thread keeps fetching from the session action cursor into a bounded
+ * buffer while the step processes and writes the current chunk, so the database serves the next rows while the
+ * previous ones are written. The background thread waits while the buffer is full.
+ * <p>
+ * The restart position is the last item handed to the step, not the last one fetched, so the buffered items of a
+ * failed chunk are read again after a restart. Not thread safe, wrap it into a synchronized reader when it is
+ * shared between threads.
+ *
+ * @param <T> the item of the cursor reader
+ */
+public class PrefetchingCursorItemReader<T> extends ItemStreamSupport implements ItemStreamReader<T> {
+
+    private static final String LAST_ID_KEY = "last.id";
+
+    // Marks the end of the rows in the buffer
+    private static final Object END = new Object();
+
+    private final AbstractSessionActionCursorItemReader<T> delegate;
+    private final ToLongFunction<T> lastIdOf;
+    private final int capacity;
+    private final ThreadFactory prefetchThreadFactory;
+
+    private BlockingQueue<Object> buffer;
+    private Thread prefetchThread;
+    private volatile Exception prefetchFailure;
+    private boolean exhausted;
+    private long lastId;
+
+    /**
+     * @param lastIdOf the id of the last row taken into an item
+     * @param capacity most items fetched ahead of the step
+     */
+    public PrefetchingCursorItemReader(AbstractSessionActionCursorItemReader<T> delegate, ToLongFunction<T> lastIdOf,
+                                       int capacity, ThreadFactory prefetchThreadFactory) {
+        this.delegate = delegate;
+        this.lastIdOf = lastIdOf;
+        this.capacity = capacity;
+        this.prefetchThreadFactory = prefetchThreadFactory;
+        setName("prefetchingCursorReader");
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        lastId = executionContext.getLong(getExecutionContextKey(LAST_ID_KEY), 0L);
+        // The cursor starts after the last item the step committed
+        ExecutionContext cursorContext = new ExecutionContext();
+        cursorContext.putLong(delegate.getExecutionContextKey(AbstractSessionActionCursorItemReader.LAST_ID_KEY), lastId);
+        delegate.open(cursorContext);
+
+        buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        prefetchFailure = null;
+        exhausted = false;
+        prefetchThread = prefetchThreadFactory.newThread(this::prefetch);
+        prefetchThread.start();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T read() throws Exception {
+        if (exhausted) {
+            return null;
+        }
+        Object item = buffer.take();
+        if (item == END) {
+            exhausted = true;
+            if (prefetchFailure != null) {
+                throw new ItemStreamException("Failed to read session actions ahead of the step", prefetchFailure);
+            }
+            return null;
+        }
+        T next = (T) item;
+        lastId = lastIdOf.applyAsLong(next);
+        return next;
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        executionContext.putLong(getExecutionContextKey(LAST_ID_KEY), lastId);
+    }
+
+    @Override
+    public void close() {
+        if (prefetchThread != null) {
+            // Stops waiting for room in the buffer, a fetch in progress is finished first
+            prefetchThread.interrupt();
+            try {
+                prefetchThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            prefetchThread = null;
+        }
+        buffer = null;
+        delegate.close();
+    }
+
+    private void prefetch() {
+        try {
+            T item;
+            while ((item = delegate.read()) != null) {
+                buffer.put(item);
+            }
+        } catch (InterruptedException e) {
+            // Closed before the cursor was exhausted, nobody takes from the buffer anymore
+            return;
+        } catch (Exception e) {
+            prefetchFailure = e;
+        }
+        try {
+            buffer.put(END);
+        } catch (InterruptedException ignored) {
+            // Closed while the buffer was full
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package spring.batch.actionCalculation.reader;
+
+import spring.batch.actionCalculation.model.ActionType;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.SessionActionFileFormat;
+
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+
+import static spring.batch.actionCalculation.model.SessionActionFileFormat.BINARY_RECORD_BYTES;
+
+/**
+ * Reads the fixed-width records of the {@link SessionActionFileFormat#BINARY} format straight from the mapped file,
+ * see {@link AbstractSessionActionFileItemReader}. An unknown action type code is passed on as the type
+ * {@code unknown <code>}, which the processor rejects like any other unknown type.
+ */
+public class SessionActionBinaryFileItemReader extends AbstractSessionActionFileItemReader {
+
+    public SessionActionBinaryFileItemReader(Path file, long startOffset, long endOffset) {
+        super(file, startOffset, endOffset);
+        setName("sessionActionBinaryFileReader");
+    }
+
+    @Override
+    protected long firstRecordOffset(long offset) {
+        return (offset + BINARY_RECORD_BYTES - 1) / BINARY_RECORD_BYTES * BINARY_RECORD_BYTES;
+    }
+
+    @Override
+    protected long recordEnd(long recordStart) {
+        return recordStart + BINARY_RECORD_BYTES;
+    }
+
+    @Override
+    protected SessionAction read(long recordStart, long recordEnd) {
+        int index = windowIndex(recordStart, BINARY_RECORD_BYTES);
+        MappedByteBuffer window = window();
+        byte actionTypeCode = window.get(index + 2 * Long.BYTES);
+        String actionType = ActionType.typeNameOf(actionTypeCode);
+        return new SessionAction(
+                window.getLong(index),
+                window.getLong(index + Long.BYTES),
+                actionType == null ? "unknown " + actionTypeCode : actionType,
+                window.getDouble(index + 2 * Long.BYTES + Byte.BYTES));
+    }
+}
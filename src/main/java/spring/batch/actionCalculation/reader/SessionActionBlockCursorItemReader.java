@@ -0,0 +1,43 @@
+package spring.batch.actionCalculation.reader;
+
+import spring.batch.actionCalculation.model.ActionType;
+import spring.batch.actionCalculation.model.SessionActionBlock;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads up to blockSize rows into one {@link SessionActionBlock}, see {@link AbstractSessionActionCursorItemReader}.
+ * Columns are read by position into primitives and the action type arrives as its code, so a row allocates nothing
+ * beyond what the driver does.
+ */
+public class SessionActionBlockCursorItemReader extends AbstractSessionActionCursorItemReader<SessionActionBlock> {
+
+    private static final String BLOCK_COLUMNS = "id, user_id, " + ActionType.CODE_COLUMN + ", amount";
+
+    private final int blockSize;
+
+    /**
+     * @param whereClause optional additional filter, e.g. the partition condition; may be null
+     */
+    public SessionActionBlockCursorItemReader(DataSource dataSource, String whereClause, int fetchSize, int blockSize) {
+        super(dataSource, BLOCK_COLUMNS, whereClause, fetchSize);
+        this.blockSize = blockSize;
+        setName("sessionActionBlockCursorReader");
+    }
+
+    @Override
+    protected SessionActionBlock read(ResultSet resultSet) throws SQLException {
+        SessionActionBlock block = null;
+        while ((block == null || !block.isFull()) && resultSet.next()) {
+            if (block == null) {
+                block = new SessionActionBlock(blockSize);
+            }
+            long id = resultSet.getLong(1);
+            block.add(id, resultSet.getLong(2), resultSet.getByte(3), resultSet.getDouble(4));
+            consumed(id);
+        }
+        return block;
+    }
+}
@@ -0,0 +1,152 @@
+package spring.batch.actionCalculation.reader;
+
+import org.springframework.batch.item.file.FlatFileParseException;
+import spring.batch.actionCalculation.model.ActionType;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.SessionActionFileFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Reads the lines of the {@link SessionActionFileFormat#CSV} format, see {@link AbstractSessionActionFileItemReader}.
+ * A range starting inside a line begins with the next one, the line belongs to the range it started in. Fields are
+ * parsed from the mapped bytes, the known action types and amounts of up to 15 digits allocate no strings.
+ */
+public class SessionActionCsvFileItemReader extends AbstractSessionActionFileItemReader {
+
+    // Up to 15 digits stay below 2^53, the largest integer every smaller one is exact as a double
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15};
+
+    public SessionActionCsvFileItemReader(Path file, long startOffset, long endOffset) {
+        super(file, startOffset, endOffset);
+        setName("sessionActionCsvFileReader");
+    }
+
+    @Override
+    protected long firstRecordOffset(long offset) {
+        return offset == 0 || byteAt(offset - 1) == '\n' ? offset : recordEnd(offset);
+    }
+
+    @Override
+    protected long recordEnd(long recordStart) {
+        long offset = recordStart;
+        while (offset < fileSize() && byteAt(offset) != '\n') {
+            offset++;
+        }
+        return Math.min(offset + 1, fileSize());
+    }
+
+    @Override
+    protected SessionAction read(long recordStart, long recordEnd) {
+        long lineEnd = recordEnd;
+        while (lineEnd > recordStart && (byteAt(lineEnd - 1) == '\n' || byteAt(lineEnd - 1) == '\r')) {
+            lineEnd--;
+        }
+        if (lineEnd == recordStart) {
+            return null;
+        }
+        byte first = byteAt(recordStart);
+        if (recordStart == 0 && first != '-' && (first < '0' || first > '9')) {
+            // Header line
+            return null;
+        }
+        long[] fieldEnds = new long[4];
+        int fieldCount = 0;
+        for (long offset = recordStart; offset <= lineEnd && fieldCount < fieldEnds.length; offset++) {
+            if (offset == lineEnd || byteAt(offset) == ',') {
+                fieldEnds[fieldCount++] = offset;
+            }
+        }
+        if (fieldCount != fieldEnds.length || fieldEnds[3] != lineEnd) {
+            throw parseException("Expected the 4 fields id,user_id,action_type,amount", recordStart, lineEnd);
+        }
+        try {
+            return new SessionAction(
+                    parseLong(recordStart, fieldEnds[0]),
+                    parseLong(fieldEnds[0] + 1, fieldEnds[1]),
+                    actionType(fieldEnds[1] + 1, fieldEnds[2]),
+                    parseAmount(fieldEnds[2] + 1, fieldEnds[3]));
+        } catch (NumberFormatException e) {
+            throw parseException(e.getMessage(), recordStart, lineEnd);
+        }
+    }
+
+    private String actionType(long start, long end) {
+        for (ActionType actionType : ActionType.values()) {
+            String typeName = actionType.typeName();
+            if (end - start == typeName.length() && matches(typeName, start)) {
+                return typeName;
+            }
+        }
+        return string(start, end);
+    }
+
+    private boolean matches(String typeName, long start) {
+        for (int i = 0; i < typeName.length(); i++) {
+            if (byteAt(start + i) != typeName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseLong(long start, long end) {
+        boolean negative = end > start && byteAt(start) == '-';
+        long offset = negative ? start + 1 : start;
+        if (offset == end) {
+            throw new NumberFormatException("Empty number");
+        }
+        long value = 0;
+        for (; offset < end; offset++) {
+            int digit = byteAt(offset) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number: " + string(start, end));
+            }
+            value = Math.multiplyExact(value, 10) + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /*
+    * Plain decimals of up to 15 digits are exact: both the digits and the power of ten are exact doubles and the
+    * division rounds correctly, as Double.parseDouble does. Anything else, e.g. an exponent, is left to it.
+     */
+    private double parseAmount(long start, long end) {
+        boolean negative = end > start && byteAt(start) == '-';
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (long offset = negative ? start + 1 : start; offset < end; offset++) {
+            byte b = byteAt(offset);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9' && digits < MAX_EXACT_DIGITS) {
+                unscaled = unscaled * 10 + (b - '0');
+                digits++;
+                scale = scale < 0 ? -1 : scale + 1;
+            } else {
+                return Double.parseDouble(string(start, end));
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not a number: " + string(start, end));
+        }
+        double value = unscaled / POWERS_OF_TEN[Math.max(scale, 0)];
+        return negative ? -value : value;
+    }
+
+    private String string(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private FlatFileParseException parseException(String message, long lineStart, long lineEnd) {
+        return new FlatFileParseException(message + " at offset " + lineStart, string(lineStart, lineEnd));
+    }
+}
@@ -0,0 +1,36 @@
+package spring.batch.actionCalculation.reader;
+
+import org.springframework.jdbc.core.RowMapper;
+import spring.batch.actionCalculation.model.SessionAction;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads one {@link SessionAction} per row, see {@link AbstractSessionActionCursorItemReader}.
+ */
+public class SessionActionCursorItemReader extends AbstractSessionActionCursorItemReader<SessionAction> {
+
+    private final RowMapper<SessionAction> rowMapper = SessionAction.getSessionActionMapper();
+
+    private int rowNum;
+
+    /**
+     * @param whereClause optional additional filter, e.g. the partition condition; may be null
+     */
+    public SessionActionCursorItemReader(DataSource dataSource, String whereClause, int fetchSize) {
+        super(dataSource, SessionAction.SESSION_ACTION_COLUMNS, whereClause, fetchSize);
+        setName("sessionActionCursorReader");
+    }
+
+    @Override
+    protected SessionAction read(ResultSet resultSet) throws SQLException {
+        if (!resultSet.next()) {
+            return null;
+        }
+        SessionAction sessionAction = rowMapper.mapRow(resultSet, rowNum++);
+        consumed(sessionAction.id());
+        return sessionAction;
+    }
+}
@@ -0,0 +1,73 @@
+package spring.batch.actionCalculation.reader;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemReader;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemStreamReader;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.UserSessionActions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns session actions ordered by (user_id, id) into one item per user holding all of the user's actions.
+ * A user is never split over two items, so the items can be processed and written by any number of threads
+ * at once without reordering the actions of a user. The actions of a user are held in memory together.
+ * <p>
+ * Thread safe, reading is serialized. The delegate has to supply the actions ordered by user and id.
+ */
+public class SessionActionGroupingItemReader implements ItemStreamReader<UserSessionActions> {
+
+    private final ItemReader<SessionAction> delegate;
+
+    // First action of the next user, read ahead to find the end of the current one
+    private SessionAction next;
+
+    public SessionActionGroupingItemReader(ItemReader<SessionAction> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized UserSessionActions read() throws Exception {
+        SessionAction first = next != null ? next : delegate.read();
+        next = null;
+        if (first == null) {
+            return null;
+        }
+        List<SessionAction> actions = new ArrayList<>();
+        actions.add(first);
+        SessionAction action;
+        while ((action = delegate.read()) != null) {
+            if (action.userId() != first.userId()) {
+                next = action;
+                break;
+            }
+            actions.add(action);
+        }
+        return new UserSessionActions(first.userId(), actions);
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        next = null;
+        if (delegate instanceof ItemStream itemStream) {
+            itemStream.open(executionContext);
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        if (delegate instanceof ItemStream itemStream) {
+            itemStream.update(executionContext);
+        }
+    }
+
+    @Override
+    public void close() {
+        next = null;
+        if (delegate instanceof ItemStream itemStream) {
+            itemStream.close();
+        }
+    }
+}
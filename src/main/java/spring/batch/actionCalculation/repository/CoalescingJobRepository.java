@@ -0,0 +1,176 @@
+package spring.batch.actionCalculation.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.JobRestartException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Cuts the job repository round-trips of every chunk commit. A step stores its counters after every chunk, which
+ * costs an update and a status query on the metadata database; while the step runs these are only passed on once
+ * per update interval. The first and the last update of a step, and every status change, are always stored.
+ * The execution context holding the restart position is still stored with every chunk.
+ * <p>
+ * The stored counters of a running step lag behind by up to the update interval, and a stop request is noticed
+ * that much later. Every call to the repository is timed, tagged with the operation.
+ */
+public class CoalescingJobRepository implements JobRepository {
+
+    public static final String REPOSITORY_TIMER_NAME = "action.calculation.job.repository";
+    public static final String COALESCED_COUNTER_NAME = "action.calculation.job.repository.coalesced";
+
+    private final JobRepository delegate;
+    private final MeterRegistry meterRegistry;
+    private final long updateIntervalNanos;
+    private final Counter coalescedUpdates;
+    // Last stored update of every running step execution
+    private final Map<Long, Long> lastUpdateNanos = new ConcurrentHashMap<>();
+
+    public CoalescingJobRepository(JobRepository delegate, MeterRegistry meterRegistry, long updateIntervalMillis) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+        this.updateIntervalNanos = updateIntervalMillis * 1_000_000;
+        this.coalescedUpdates = meterRegistry.counter(COALESCED_COUNTER_NAME);
+    }
+
+    @Override
+    public void update(StepExecution stepExecution) {
+        if (stepExecution.getStatus() != BatchStatus.STARTED) {
+            lastUpdateNanos.remove(stepExecution.getId());
+            timed("updateStepExecution", () -> delegate.update(stepExecution));
+            return;
+        }
+        long now = System.nanoTime();
+        Long lastUpdate = lastUpdateNanos.get(stepExecution.getId());
+        if (lastUpdate != null && now - lastUpdate < updateIntervalNanos) {
+            coalescedUpdates.increment();
+            return;
+        }
+        timed("updateStepExecution", () -> delegate.update(stepExecution));
+        lastUpdateNanos.put(stepExecution.getId(), now);
+    }
+
+    @Override
+    public void updateExecutionContext(StepExecution stepExecution) {
+        timed("updateStepExecutionContext", () -> delegate.updateExecutionContext(stepExecution));
+    }
+
+    @Override
+    public void updateExecutionContext(JobExecution jobExecution) {
+        timed("updateJobExecutionContext", () -> delegate.updateExecutionContext(jobExecution));
+    }
+
+    @Override
+    public void update(JobExecution jobExecution) {
+        timed("updateJobExecution", () -> delegate.update(jobExecution));
+    }
+
+    @Override
+    public void add(StepExecution stepExecution) {
+        timed("addStepExecution", () -> delegate.add(stepExecution));
+    }
+
+    @Override
+    public void addAll(Collection<StepExecution> stepExecutions) {
+        timed("addStepExecutions", () -> delegate.addAll(stepExecutions));
+    }
+
+    @Override
+    public JobExecution createJobExecution(String jobName, JobParameters jobParameters)
+            throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return delegate.createJobExecution(jobName, jobParameters);
+        } finally {
+            sample.stop(timer("createJobExecution"));
+        }
+    }
+
+    @Override
+    public JobInstance createJobInstance(String jobName, JobParameters jobParameters) {
+        return timed("createJobInstance", () -> delegate.createJobInstance(jobName, jobParameters));
+    }
+
+    @Override
+    public boolean isJobInstanceExists(String jobName, JobParameters jobParameters) {
+        return timed("isJobInstanceExists", () -> delegate.isJobInstanceExists(jobName, jobParameters));
+    }
+
+    @Override
+    public List<String> getJobNames() {
+        return timed("getJobNames", delegate::getJobNames);
+    }
+
+    @Override
+    public List<JobInstance> findJobInstancesByName(String jobName, int start, int count) {
+        return timed("findJobInstancesByName", () -> delegate.findJobInstancesByName(jobName, start, count));
+    }
+
+    @Override
+    public List<JobExecution> findJobExecutions(JobInstance jobInstance) {
+        return timed("findJobExecutions", () -> delegate.findJobExecutions(jobInstance));
+    }
+
+    @Override
+    public JobInstance getJobInstance(String jobName, JobParameters jobParameters) {
+        return timed("getJobInstance", () -> delegate.getJobInstance(jobName, jobParameters));
+    }
+
+    @Override
+    public StepExecution getLastStepExecution(JobInstance jobInstance, String stepName) {
+        return timed("getLastStepExecution", () -> delegate.getLastStepExecution(jobInstance, stepName));
+    }
+
+    @Override
+    public long getStepExecutionCount(JobInstance jobInstance, String stepName) {
+        return timed("getStepExecutionCount", () -> delegate.getStepExecutionCount(jobInstance, stepName));
+    }
+
+    @Override
+    public JobExecution getLastJobExecution(String jobName, JobParameters jobParameters) {
+        return timed("getLastJobExecution", () -> delegate.getLastJobExecution(jobName, jobParameters));
+    }
+
+    @Override
+    public void deleteStepExecution(StepExecution stepExecution) {
+        timed("deleteStepExecution", () -> delegate.deleteStepExecution(stepExecution));
+    }
+
+    @Override
+    public void deleteJobExecution(JobExecution jobExecution) {
+        timed("deleteJobExecution", () -> delegate.deleteJobExecution(jobExecution));
+    }
+
+    @Override
+    public void deleteJobInstance(JobInstance jobInstance) {
+        timed("deleteJobInstance", () -> delegate.deleteJobInstance(jobInstance));
+    }
+
+    private void timed(String operation, Runnable call) {
+        timer(operation).record(call);
+    }
+
+    private <T> T timed(String operation, Supplier<T> call) {
+        return timer(operation).record(call);
+    }
+
+    private Timer timer(String operation) {
+        return Timer.builder(REPOSITORY_TIMER_NAME)
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,295 @@
+package spring.batch.actionCalculation.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.core.task.TaskExecutor;
+import spring.batch.actionCalculation.exception.JobQueueFullException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.FROM_ID;
+import static spring.batch.actionCalculation.constants.CommonConstants.TO_ID;
+
+/**
+ * Queues job submissions and runs them one at a time in submission order, as every calculation job rebuilds or
+ * updates user_score.
+ * <p>
+ * A submission with the same job and options as one still waiting or running is answered with that one, it
+ * would compute the same scores. The thread that starts the first submission keeps taking the next one from the
+ * queue until it is empty, so the executor is only called when nothing runs and never under the lock. The preparation of a submission, e.g. emptying user_score, runs right before
+ * its job starts, so it never touches the table while another job writes it.
+ * <p>
+ * Progress is read from the job repository, so it covers partitions on other nodes and lags behind by the step
+ * update interval at most.
+ */
+public class JobSubmissionScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobSubmissionScheduler.class);
+
+    // Finished submissions kept for the status API
+    private static final int MAX_FINISHED_SUBMISSIONS = 100;
+
+    private final JobRepository jobRepository;
+    private final JobExplorer jobExplorer;
+    private final TaskExecutor jobExecutor;
+    private final int maxQueuedJobs;
+
+    private final AtomicLong submissionIds = new AtomicLong();
+    private final Deque<Submission> queue = new ArrayDeque<>();
+    private final Map<Long, Submission> finished = new LinkedHashMap<>();
+    private Submission running;
+
+    /**
+     * @param jobExecutor runs the thread that works through the queue, one at a time
+     */
+    public JobSubmissionScheduler(JobRepository jobRepository, JobExplorer jobExplorer, TaskExecutor jobExecutor,
+                                  int maxQueuedJobs) {
+        this.jobRepository = jobRepository;
+        this.jobExplorer = jobExplorer;
+        this.jobExecutor = jobExecutor;
+        this.maxQueuedJobs = maxQueuedJobs;
+    }
+
+    /**
+     * Queues the job, or returns the waiting or running submission of the same job with the same options
+     *
+     * @param preparation prepares the run right before the job starts and returns its job parameters
+     * @throws JobQueueFullException when maxQueuedJobs submissions are already waiting
+     */
+    public JobSubmissionStatus submit(Job job, Map<String, String> options, Callable<JobParameters> preparation) {
+        Map<String, String> sortedOptions = new TreeMap<>(options);
+        Submission submission = null;
+        Submission started = null;
+        synchronized (this) {
+            if (running != null && running.matches(job, sortedOptions)) {
+                LOGGER.info("{} with {} is already running as submission {}", job.getName(), sortedOptions, running.id);
+                submission = running;
+            }
+            for (Submission queued : queue) {
+                if (submission == null && queued.matches(job, sortedOptions)) {
+                    LOGGER.info("{} with {} is already waiting as submission {}", job.getName(), sortedOptions, queued.id);
+                    submission = queued;
+                }
+            }
+            if (submission == null) {
+                if (queue.size() >= maxQueuedJobs) {
+                    throw new JobQueueFullException(queue.size() + " jobs are already waiting, submit " + job.getName() + " later");
+                }
+                submission = new Submission(submissionIds.incrementAndGet(), job, sortedOptions, preparation);
+                queue.addLast(submission);
+                LOGGER.info("Queued {} with {} as submission {}", job.getName(), sortedOptions, submission.id);
+                if (running == null) {
+                    started = next();
+                }
+            }
+        }
+        if (started != null) {
+            start(started);
+        }
+        return status(submission);
+    }
+
+    /**
+     * @return null for an unknown or forgotten submission
+     */
+    public JobSubmissionStatus status(long submissionId) {
+        Submission submission;
+        synchronized (this) {
+            submission = running != null && running.id == submissionId ? running : finished.get(submissionId);
+            if (submission == null) {
+                submission = queue.stream().filter(queued -> queued.id == submissionId).findFirst().orElse(null);
+            }
+        }
+        return submission == null ? null : status(submission);
+    }
+
+    /**
+     * Running, waiting and the latest finished submissions
+     */
+    public List<JobSubmissionStatus> statuses() {
+        List<Submission> submissions = new ArrayList<>();
+        synchronized (this) {
+            if (running != null) {
+                submissions.add(running);
+            }
+            submissions.addAll(queue);
+            submissions.addAll(finished.values());
+        }
+        return submissions.stream().map(this::status).toList();
+    }
+
+    /*
+    * Takes the next submission from the queue, the caller has to hold the lock and run it
+     */
+    private Submission next() {
+        Submission submission = queue.pollFirst();
+        running = submission;
+        if (submission != null) {
+            submission.startedAt = LocalDateTime.now();
+        }
+        return submission;
+    }
+
+    private void start(Submission first) {
+        try {
+            jobExecutor.execute(() -> {
+                Submission submission = first;
+                while (submission != null) {
+                    run(submission);
+                    submission = finish(submission);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOGGER.error("Submission {} of {} failed to start", first.id, first.job.getName(), e);
+            first.error = e.getMessage();
+            Submission next = finish(first);
+            if (next != null) {
+                start(next);
+            }
+        }
+    }
+
+    private void run(Submission submission) {
+        try {
+            JobParameters jobParameters = submission.preparation.call();
+            // Hands the job over instead of starting it, so it runs on this thread once its execution id is known
+            List<Runnable> jobRuns = new ArrayList<>(1);
+            TaskExecutorJobLauncher jobLauncher = new TaskExecutorJobLauncher();
+            jobLauncher.setJobRepository(jobRepository);
+            jobLauncher.setTaskExecutor(jobRuns::add);
+            jobLauncher.afterPropertiesSet();
+            JobExecution jobExecution = jobLauncher.run(submission.job, jobParameters);
+            submission.jobExecutionId = jobExecution.getId();
+            jobRuns.forEach(Runnable::run);
+        } catch (Exception e) {
+            LOGGER.error("Submission {} of {} failed to start", submission.id, submission.job.getName(), e);
+            submission.error = e.getMessage();
+        }
+    }
+
+    /*
+    * Returns the submission to run next, null when the queue is empty
+     */
+    private synchronized Submission finish(Submission submission) {
+        submission.endedAt = LocalDateTime.now();
+        finished.put(submission.id, submission);
+        if (finished.size() > MAX_FINISHED_SUBMISSIONS) {
+            finished.remove(finished.keySet().iterator().next());
+        }
+        return next();
+    }
+
+    /*
+    * Reads the progress outside of the lock, the job repository may take a while to answer
+     */
+    private JobSubmissionStatus status(Submission submission) {
+        Integer queuePosition = null;
+        synchronized (this) {
+            int position = 1;
+            for (Submission queued : queue) {
+                if (queued == submission) {
+                    queuePosition = position;
+                }
+                position++;
+            }
+        }
+        JobExecution jobExecution = submission.jobExecutionId == null ? null : jobExplorer.getJobExecution(submission.jobExecutionId);
+        String state;
+        if (queuePosition != null) {
+            state = "QUEUED";
+        } else if (jobExecution != null) {
+            state = jobExecution.getStatus().name();
+        } else {
+            state = submission.endedAt == null ? "STARTING" : "FAILED";
+        }
+
+        long itemsProcessed = 0;
+        Long itemsTotal = null;
+        double itemsPerSecond = 0;
+        Long etaSeconds = null;
+        if (jobExecution != null && jobExecution.getStartTime() != null) {
+            itemsProcessed = itemsProcessed(jobExecution);
+            ExecutionContext executionContext = jobExecution.getExecutionContext();
+            if (executionContext.containsKey(FROM_ID) && executionContext.containsKey(TO_ID)) {
+                // The id window is an upper bound, ids deleted in between are never read
+                itemsTotal = executionContext.getLong(TO_ID) - executionContext.getLong(FROM_ID);
+            }
+            LocalDateTime endTime = jobExecution.getEndTime() == null ? LocalDateTime.now() : jobExecution.getEndTime();
+            long elapsedMillis = Duration.between(jobExecution.getStartTime(), endTime).toMillis();
+            itemsPerSecond = itemsProcessed * 1000d / Math.max(1, elapsedMillis);
+            if (jobExecution.isRunning() && itemsTotal != null && itemsPerSecond > 0) {
+                etaSeconds = (long) Math.ceil(Math.max(0, itemsTotal - itemsProcessed) / itemsPerSecond);
+            }
+        }
+        return new JobSubmissionStatus(submission.id, submission.job.getName(), submission.options, state, queuePosition,
+                submission.jobExecutionId, submission.submittedAt, submission.startedAt, submission.endedAt,
+                itemsProcessed, itemsTotal, itemsPerSecond, etaSeconds,
+                submission.error != null ? submission.error : jobExecution == null ? null : failureOf(jobExecution));
+    }
+
+    /*
+    * Session actions read by the partitions, or by the steps when the job is not partitioned; the manager step of a
+    * partitioned step only sums up its partitions when they are done
+     */
+    private static long itemsProcessed(JobExecution jobExecution) {
+        long partitionItems = 0;
+        long stepItems = 0;
+        boolean partitioned = false;
+        for (StepExecution stepExecution : jobExecution.getStepExecutions()) {
+            if (stepExecution.getStepName().indexOf(':') >= 0) {
+                partitioned = true;
+                partitionItems += stepExecution.getReadCount();
+            } else {
+                stepItems += stepExecution.getReadCount();
+            }
+        }
+        return partitioned ? partitionItems : stepItems;
+    }
+
+    private static String failureOf(JobExecution jobExecution) {
+        List<Throwable> failures = jobExecution.getAllFailureExceptions();
+        return failures.isEmpty() ? null : failures.get(0).getMessage();
+    }
+
+    private static final class Submission {
+        private final long id;
+        private final Job job;
+        private final Map<String, String> options;
+        private final Callable<JobParameters> preparation;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime endedAt;
+        private volatile Long jobExecutionId;
+        private volatile String error;
+
+        private Submission(long id, Job job, Map<String, String> options, Callable<JobParameters> preparation) {
+            this.id = id;
+            this.job = job;
+            this.options = options;
+            this.preparation = preparation;
+        }
+
+        private boolean matches(Job job, Map<String, String> options) {
+            return this.job.getName().equals(job.getName()) && this.options.equals(options);
+        }
+    }
+}
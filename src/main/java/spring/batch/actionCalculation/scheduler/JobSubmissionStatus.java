@@ -0,0 +1,29 @@
+package spring.batch.actionCalculation.scheduler;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * State and progress of a job submission. The state is QUEUED or STARTING before the job runs, then the batch
+ * status of its execution. Items are the session actions read; the total and the ETA are only known for jobs
+ * reading an id window of session_action, the total counts ids rather than rows.
+ *
+ * @param queuePosition 1 for the next submission to start, null once started
+ * @param error why the job failed to start or the first failure of its execution
+ */
+public record JobSubmissionStatus(
+        long submissionId,
+        String jobName,
+        Map<String, String> options,
+        String state,
+        Integer queuePosition,
+        Long jobExecutionId,
+        LocalDateTime submittedAt,
+        LocalDateTime startedAt,
+        LocalDateTime endedAt,
+        long itemsProcessed,
+        Long itemsTotal,
+        double itemsPerSecond,
+        Long etaSeconds,
+        String error) {
+}
@@ -0,0 +1,55 @@
+package spring.batch.actionCalculation.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import spring.batch.actionCalculation.config.DataSourceConfig;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.SessionActionFileFormat;
+import spring.batch.actionCalculation.reader.SessionActionCursorItemReader;
+
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+/**
+ * Writes session_action to an export file in id order, as upstream systems hand them over, e.g.
+ * {@code --file=/tmp/session_action.bin --format=binary}
+ */
+public class ExportSessionActionFile {
+    private static final Logger log = LoggerFactory.getLogger(ExportSessionActionFile.class);
+
+    public static void main(String[] args) throws Exception {
+        SimpleCommandLinePropertySource arguments = new SimpleCommandLinePropertySource(args);
+        Path file = Path.of(arguments.getProperty("file"));
+        SessionActionFileFormat format = SessionActionFileFormat.of(argument(arguments, "format", "csv"));
+
+        try (var context = new AnnotationConfigApplicationContext(DataSourceConfig.class);
+             var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 20))) {
+            SessionActionCursorItemReader reader = new SessionActionCursorItemReader(
+                    context.getBean("postgresReadDataSource", DataSource.class), null, 10_000);
+            reader.open(new ExecutionContext());
+            long recordCount = 0;
+            try {
+                SessionAction sessionAction;
+                while ((sessionAction = reader.read()) != null) {
+                    format.write(sessionAction, output);
+                    recordCount++;
+                }
+            } finally {
+                reader.close();
+            }
+            log.info("Exported {} session actions to {} as {}", recordCount, file, format);
+        }
+    }
+
+    private static String argument(SimpleCommandLinePropertySource arguments, String name, String defaultValue) {
+        String value = arguments.getProperty(name);
+        return value == null ? defaultValue : value;
+    }
+}
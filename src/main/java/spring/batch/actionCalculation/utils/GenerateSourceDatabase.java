@@ -4,43 +4,66 @@ package spring.batch.actionCalculation.utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.transaction.PlatformTransactionManager;
-import org.springframework.transaction.support.TransactionTemplate;
+import spring.batch.actionCalculation.config.ConnectionPoolSizer;
 import spring.batch.actionCalculation.config.DataSourceConfig;
 import spring.batch.actionCalculation.constants.CommonConstants;
-import spring.batch.actionCalculation.model.SessionAction;
 
 import javax.sql.DataSource;
-import java.util.Random;
-import java.util.stream.IntStream;
 
 
+/**
+ * Recreates session_action with generated rows, e.g.
+ * {@code --records=100000000 --users=1000000 --distribution=zipf --zipf-exponent=1.1 --threads=8 --batch-size=1000000}
+ */
 public class GenerateSourceDatabase {
     private static final Logger log = LoggerFactory.getLogger(GenerateSourceDatabase.class);
 
-    private static final Random random = new Random();
+    public static void main(String[] args) throws InterruptedException {
+        SimpleCommandLinePropertySource arguments = new SimpleCommandLinePropertySource(args);
+        long recordCount = Long.parseLong(argument(arguments, "records", String.valueOf(CommonConstants.RECORD_COUNT)));
+        int userCount = Integer.parseInt(argument(arguments, "users", String.valueOf(CommonConstants.USER_COUNT)));
+        String distribution = argument(arguments, "distribution", "uniform");
+        double zipfExponent = Double.parseDouble(argument(arguments, "zipf-exponent", "1.1"));
+        int batchSize = Integer.parseInt(argument(arguments, "batch-size", "1000000"));
+        long seed = Long.parseLong(argument(arguments, "seed", "42"));
 
-    public static void main(String[] args) {
         try(var context = new AnnotationConfigApplicationContext(DataSourceConfig.class)){
-//            AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(DataSourceConfig.class);
-            var jdbcTemplate = new JdbcTemplate(context.getBean("postgresDataSource", DataSource.class));
+            var postgresDataSource = context.getBean("postgresDataSource", DataSource.class);
             var postgresTransactionManager = context.getBean("postgresTransactionManager", PlatformTransactionManager.class);
-            SourceDatabaseUtils.createNewSessionActionTable(jdbcTemplate, postgresTransactionManager);
-            new TransactionTemplate(postgresTransactionManager).execute(status -> {
-                IntStream.range(0, CommonConstants.RECORD_COUNT).forEach(i -> {
-                    SourceDatabaseUtils.insertSessionAction(jdbcTemplate, generateRecord(i + 1), CommonConstants.SESSION_ACTION_TABLE_NAME);
-                });
-                return null;
-            });
-            log.info("Input source table with {} records is successfully initialized", CommonConstants.RECORD_COUNT);
+            var connectionPoolSizer = context.getBean("connectionPoolSizer", ConnectionPoolSizer.class);
+            // Every thread holds a connection for the whole load
+            int threadCount = Math.min(connectionPoolSizer.maxWorkers(), Integer.parseInt(argument(arguments, "threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+            SourceDatabaseUtils.createNewSessionActionTable(new JdbcTemplate(postgresDataSource), postgresTransactionManager);
+            // The generator threads only write
+            ConnectionPoolSizer.Workers writers = new ConnectionPoolSizer.Workers(0, threadCount);
+            connectionPoolSizer.acquire(writers);
+            try {
+                new SessionActionGenerator(postgresDataSource, recordCount,
+                        userIdDistribution(distribution, userCount, zipfExponent), threadCount, batchSize, seed)
+                        .generate();
+            } finally {
+                connectionPoolSizer.release(writers);
+            }
+            log.info("Input source table with {} records of {} {} distributed users is successfully initialized",
+                    recordCount, userCount, distribution);
         }
     }
 
-    private static SessionAction generateRecord(long id){
-        long userId = 1+random.nextInt(CommonConstants.USER_COUNT);
-        return random.nextBoolean()
-                ? new SessionAction(id, userId, CommonConstants.PLUS_TYPE, 1 + random.nextInt(3))
-                : new SessionAction(id, userId, CommonConstants.MULTI_TYPE, ((double) (1 + random.nextInt(5))) / 10 + 1d);
+    private static SessionActionGenerator.UserIdDistribution userIdDistribution(String distribution, int userCount, double zipfExponent) {
+        return switch (distribution) {
+            case "uniform" -> SessionActionGenerator.UserIdDistribution.uniform(userCount);
+            case "zipf" -> SessionActionGenerator.UserIdDistribution.zipf(userCount, zipfExponent);
+            default -> throw new IllegalArgumentException("Unknown distribution: " + distribution + ", expected uniform or zipf");
+        };
+    }
+
+    private static String argument(SimpleCommandLinePropertySource arguments, String name, String defaultValue) {
+        String value = arguments.getProperty(name);
+        return value == null ? defaultValue : value;
     }
 }
@@ -0,0 +1,260 @@
+package spring.batch.actionCalculation.utils;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.launch.support.TaskExecutorJobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import spring.batch.actionCalculation.ActionCalculationApplication;
+import spring.batch.actionCalculation.config.ConnectionPoolSizer;
+import spring.batch.actionCalculation.listener.ChunkTimingListener;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_TABLE_NAME;
+
+/**
+ * Generates a session action data set, runs every configured job against it on the local databases and
+ * reports throughput, chunk latency, job repository time per chunk, connection wait and heap usage per job. All jobs have to produce the
+ * same user scores as the first one. user_score stores them unrounded, so the jobs only differ by the floating point
+ * error of applying the same updates in a different grouping; the harness exits with status 1 when a job failed or
+ * any score differs by more than that.
+ * <p>
+ * Takes its settings as application arguments, e.g.
+ * {@code --harness.records=5000000 --harness.users=10000 --harness.distribution=zipf --harness.job.readerMode=cursor}
+ */
+public class LoadTestHarness {
+    private static final Logger log = LoggerFactory.getLogger(LoadTestHarness.class);
+
+    // The multi threaded job is left out, its threads commit the chunks of a user in any order, which changes
+    // the scores of users with both additive and multiplying actions
+    private static final String DEFAULT_JOBS = "simpleActionCalculationJob,partitionedLocalActionCalculationJob,databaseActionCalculationJob";
+    // Relative error a score may carry from folding the same updates in a different grouping
+    private static final double SCORE_TOLERANCE = 1e-9;
+
+    public static void main(String[] args) throws Exception {
+        boolean passed;
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ActionCalculationApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args)) {
+            passed = new LoadTestHarness(context).run();
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private final ConfigurableApplicationContext context;
+    private final Environment environment;
+    private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager postgresTransactionManager;
+    private final MeterRegistry meterRegistry;
+
+    private LoadTestHarness(ConfigurableApplicationContext context) {
+        this.context = context;
+        this.environment = context.getEnvironment();
+        this.jdbcTemplate = new JdbcTemplate(context.getBean("postgresDataSource", DataSource.class));
+        this.postgresTransactionManager = context.getBean("postgresTransactionManager", PlatformTransactionManager.class);
+        // Also holds the Hikari pool metrics the actuator binds for all data sources
+        this.meterRegistry = context.getBean(MeterRegistry.class);
+    }
+
+    /*
+    * Returns whether every job completed with the scores of the first one
+     */
+    private boolean run() throws Exception {
+        long recordCount = environment.getProperty("harness.records", Long.class, 1_000_000L);
+        int userCount = environment.getProperty("harness.users", Integer.class, 10_000);
+        String distribution = environment.getProperty("harness.distribution", "uniform");
+        double zipfExponent = environment.getProperty("harness.zipf-exponent", Double.class, 1.1d);
+        String[] jobNames = environment.getProperty("harness.jobs", DEFAULT_JOBS).split(",");
+        Map<String, String> jobOptions = Binder.get(environment)
+                .bind("harness.job", Bindable.mapOf(String.class, String.class))
+                .orElse(Map.of());
+
+        generateSessionActions(recordCount, "zipf".equals(distribution)
+                ? SessionActionGenerator.UserIdDistribution.zipf(userCount, zipfExponent)
+                : SessionActionGenerator.UserIdDistribution.uniform(userCount));
+
+        List<JobReport> reports = new ArrayList<>();
+        Map<Long, Double> expectedScores = null;
+        for (String jobName : jobNames) {
+            JobReport report = runJob(jobName.trim(), jobOptions, recordCount);
+            Map<Long, Double> scores = loadScores();
+            if (expectedScores == null) {
+                expectedScores = scores;
+            } else {
+                report.mismatchCount = countMismatches(expectedScores, scores);
+            }
+            reports.add(report);
+        }
+
+        log.info("{} session actions of {} {} distributed users", recordCount, userCount, distribution);
+        log.info(String.format("%-45s %-10s %12s %10s %10s %16s %14s %12s %10s",
+                "job", "status", "items/sec", "p50 ms", "p99 ms", "repo ms/chunk", "conn wait ms", "heap MB", "mismatches"));
+        for (JobReport report : reports) {
+            log.info(String.format("%-45s %-10s %12.0f %10.2f %10.2f %16.3f %14.1f %12d %10d",
+                    report.jobName, report.status, report.itemsPerSecond, report.chunkP50Millis, report.chunkP99Millis,
+                    report.repositoryMillisPerChunk, report.connectionWaitMillis, report.peakHeapBytes >> 20, report.mismatchCount));
+        }
+
+        boolean passed = true;
+        for (JobReport report : reports) {
+            if (report.status != BatchStatus.COMPLETED) {
+                log.error("{} ended with status {}", report.jobName, report.status);
+                passed = false;
+            } else if (report.mismatchCount > 0) {
+                log.error("{} produced {} user scores that differ from {}", report.jobName, report.mismatchCount, reports.get(0).jobName);
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    private void generateSessionActions(long recordCount, SessionActionGenerator.UserIdDistribution userIdDistribution) throws InterruptedException {
+        SourceDatabaseUtils.createNewSessionActionTable(jdbcTemplate, postgresTransactionManager);
+        ConnectionPoolSizer connectionPoolSizer = context.getBean("connectionPoolSizer", ConnectionPoolSizer.class);
+        int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), connectionPoolSizer.maxWorkers());
+        // The generator threads only write
+        ConnectionPoolSizer.Workers writers = new ConnectionPoolSizer.Workers(0, threadCount);
+        connectionPoolSizer.acquire(writers);
+        try {
+            new SessionActionGenerator(jdbcTemplate.getDataSource(), recordCount, userIdDistribution,
+                    threadCount, 1_000_000, 42).generate();
+        } finally {
+            connectionPoolSizer.release(writers);
+        }
+    }
+
+    private JobReport runJob(String jobName, Map<String, String> jobOptions, long recordCount) throws Exception {
+        SourceDatabaseUtils.createUserScoreTable(jdbcTemplate, postgresTransactionManager);
+        double connectionWaitBefore = connectionWaitMillis();
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        TaskExecutorJobLauncher jobLauncher = new TaskExecutorJobLauncher();
+        jobLauncher.setJobRepository(context.getBean(JobRepository.class));
+        jobLauncher.afterPropertiesSet();
+        JobParametersBuilder jobParametersBuilder = new JobParametersBuilder()
+                .addString(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        jobOptions.forEach(jobParametersBuilder::addString);
+
+        log.info("Running {}", jobName);
+        JobExecution jobExecution = jobLauncher.run(context.getBean(jobName, Job.class), jobParametersBuilder.toJobParameters());
+
+        JobReport report = new JobReport(jobName);
+        report.status = jobExecution.getStatus();
+        Duration duration = Duration.between(jobExecution.getStartTime(), jobExecution.getEndTime());
+        report.itemsPerSecond = recordCount * 1000d / Math.max(1, duration.toMillis());
+        report.peakHeapBytes = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        report.connectionWaitMillis = connectionWaitMillis() - connectionWaitBefore;
+
+        meterRegistry.find(ChunkTimingListener.CHUNK_TIMER_NAME).tag("job", jobName).timers().stream()
+                .max(Comparator.comparingLong(Timer::count))
+                .ifPresent(chunkTimer -> {
+                    for (ValueAtPercentile percentile : chunkTimer.takeSnapshot().percentileValues()) {
+                        if (percentile.percentile() == 0.5) {
+                            report.chunkP50Millis = percentile.value(TimeUnit.MILLISECONDS);
+                        } else if (percentile.percentile() == 0.99) {
+                            report.chunkP99Millis = percentile.value(TimeUnit.MILLISECONDS);
+                        }
+                    }
+                });
+
+        // Time between the write and the commit of a chunk, spent storing the step execution in the job repository
+        long chunkCount = 0;
+        double repositoryMillis = 0;
+        for (Timer repositoryTimer : meterRegistry.find(ChunkTimingListener.CHUNK_REPOSITORY_TIMER_NAME).tag("job", jobName).timers()) {
+            chunkCount += repositoryTimer.count();
+            repositoryMillis += repositoryTimer.totalTime(TimeUnit.MILLISECONDS);
+        }
+        report.repositoryMillisPerChunk = chunkCount == 0 ? 0 : repositoryMillis / chunkCount;
+        return report;
+    }
+
+    private double connectionWaitMillis() {
+        // The readers and writers take their connections from the two Postgres pools
+        double connectionWaitMillis = 0;
+        for (String dataSourceName : List.of("postgresReadDataSource", "postgresDataSource")) {
+            if (context.getBean(dataSourceName, DataSource.class) instanceof HikariDataSource postgresDataSource) {
+                Timer connectionTimer = meterRegistry.find("hikaricp.connections.acquire")
+                        .tag("pool", postgresDataSource.getPoolName())
+                        .timer();
+                connectionWaitMillis += connectionTimer == null ? 0 : connectionTimer.totalTime(TimeUnit.MILLISECONDS);
+            }
+        }
+        return connectionWaitMillis;
+    }
+
+    private Map<Long, Double> loadScores() {
+        Map<Long, Double> scores = new HashMap<>();
+        jdbcTemplate.query("select user_id, score from " + USER_SCORE_TABLE_NAME,
+                rs -> {
+                    scores.put(rs.getLong("user_id"), rs.getDouble("score"));
+                });
+        return scores;
+    }
+
+    /*
+    * Compares relative to the larger score, scores close to zero absolutely; a user missing on either side is a mismatch
+     */
+    private static long countMismatches(Map<Long, Double> expectedScores, Map<Long, Double> scores) {
+        long mismatchCount = expectedScores.entrySet().stream()
+                .filter(expected -> {
+                    Double score = scores.get(expected.getKey());
+                    return score == null || !sameScore(score, expected.getValue());
+                })
+                .count();
+        return mismatchCount + scores.keySet().stream().filter(userId -> !expectedScores.containsKey(userId)).count();
+    }
+
+    private static boolean sameScore(double score, double expected) {
+        return Math.abs(score - expected) <= SCORE_TOLERANCE * Math.max(1d, Math.max(Math.abs(score), Math.abs(expected)));
+    }
+
+    private static class JobReport {
+        private final String jobName;
+        private BatchStatus status;
+        private double itemsPerSecond;
+        private double chunkP50Millis;
+        private double chunkP99Millis;
+        private double repositoryMillisPerChunk;
+        private double connectionWaitMillis;
+        private long peakHeapBytes;
+        private long mismatchCount;
+
+        private JobReport(String jobName) {
+            this.jobName = jobName;
+        }
+    }
+}
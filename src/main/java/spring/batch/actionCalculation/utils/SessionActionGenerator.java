@@ -0,0 +1,237 @@
+package spring.batch.actionCalculation.utils;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spring.batch.actionCalculation.constants.CommonConstants;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_TABLE_NAME;
+
+/**
+ * Fills session_action with synthetic rows. Every worker thread generates its own contiguous id range and
+ * streams it with COPY on its own connection, committing every batch. The primary key and the user index are
+ * dropped during the load and rebuilt once at the end, which is much cheaper than maintaining them per row.
+ * <p>
+ * The same seed always produces the same rows for the same record count, user count and thread count.
+ */
+public class SessionActionGenerator {
+    private static final Logger log = LoggerFactory.getLogger(SessionActionGenerator.class);
+
+    private static final String COPY_QUERY = "copy " + SESSION_ACTION_TABLE_NAME + " (id, user_id, action_type, amount) from stdin";
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    private final DataSource dataSource;
+    private final long recordCount;
+    private final UserIdDistribution userIdDistribution;
+    private final int threadCount;
+    private final int batchSize;
+    private final long seed;
+
+    public SessionActionGenerator(DataSource dataSource, long recordCount, UserIdDistribution userIdDistribution,
+                                  int threadCount, int batchSize, long seed) {
+        this.dataSource = dataSource;
+        this.recordCount = recordCount;
+        this.userIdDistribution = userIdDistribution;
+        this.threadCount = Math.max(1, threadCount);
+        this.batchSize = Math.max(1, batchSize);
+        this.seed = seed;
+    }
+
+    /**
+     * Expects an empty session_action table, see {@link SourceDatabaseUtils#createNewSessionActionTable}.
+     */
+    public void generate() throws InterruptedException {
+        long startTime = System.nanoTime();
+        executeAndCommit(
+                "alter table " + SESSION_ACTION_TABLE_NAME + " drop constraint if exists " + SESSION_ACTION_TABLE_NAME + "_pkey",
+                "drop index if exists " + SESSION_ACTION_TABLE_NAME + "_user_id_id_idx");
+
+        AtomicLong loadedCount = new AtomicLong();
+        long recordsPerThread = (recordCount + threadCount - 1) / threadCount;
+        SplittableRandom seedRandom = new SplittableRandom(seed);
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> workers = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                long firstId = 1 + i * recordsPerThread;
+                long lastId = Math.min(recordCount, firstId + recordsPerThread - 1);
+                SplittableRandom random = seedRandom.split();
+                if (firstId <= lastId) {
+                    workers.add(executorService.submit(() -> {
+                        load(firstId, lastId, random, loadedCount);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to generate session actions", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        long loadTime = System.nanoTime();
+        log.info("Loaded {} session actions in {} s", loadedCount.get(), (loadTime - startTime) / 1_000_000_000);
+
+        executeAndCommit(
+                "alter table " + SESSION_ACTION_TABLE_NAME + " add primary key (id)",
+                "create index " + SESSION_ACTION_TABLE_NAME + "_user_id_id_idx on " + SESSION_ACTION_TABLE_NAME + " (user_id, id)",
+                // Later inserts without an explicit id continue after the generated rows
+                "select setval(pg_get_serial_sequence('" + SESSION_ACTION_TABLE_NAME + "', 'id'), " + Math.max(1, recordCount) + ")",
+                "analyze " + SESSION_ACTION_TABLE_NAME);
+        log.info("Rebuilt the {} indexes in {} s", SESSION_ACTION_TABLE_NAME, (System.nanoTime() - loadTime) / 1_000_000_000);
+    }
+
+    private void load(long firstId, long lastId, SplittableRandom random, AtomicLong loadedCount) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            StringBuilder rows = new StringBuilder(COPY_BUFFER_SIZE + 64);
+            for (long batchFirstId = firstId; batchFirstId <= lastId; batchFirstId += batchSize) {
+                long batchLastId = Math.min(lastId, batchFirstId + batchSize - 1);
+                CopyIn copyIn = pgConnection.getCopyAPI().copyIn(COPY_QUERY);
+                try {
+                    for (long id = batchFirstId; id <= batchLastId; id++) {
+                        appendRow(rows, id, random);
+                        if (rows.length() >= COPY_BUFFER_SIZE) {
+                            writeToCopy(copyIn, rows);
+                        }
+                    }
+                    writeToCopy(copyIn, rows);
+                    copyIn.endCopy();
+                } finally {
+                    if (copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                }
+                connection.commit();
+                long loaded = loadedCount.addAndGet(batchLastId - batchFirstId + 1);
+                if (loaded / 10_000_000 != (loaded - (batchLastId - batchFirstId + 1)) / 10_000_000) {
+                    log.info("Loaded {} of {} session actions", loaded, recordCount);
+                }
+            }
+        }
+    }
+
+    private void appendRow(StringBuilder rows, long id, SplittableRandom random) {
+        rows.append(id).append('\t').append(userIdDistribution.nextUserId(random)).append('\t');
+        if (random.nextBoolean()) {
+            rows.append(CommonConstants.PLUS_TYPE).append('\t').append(1 + random.nextInt(3));
+        } else {
+            // 1.1 to 1.5, same as the original generator
+            rows.append(CommonConstants.MULTI_TYPE).append("\t1.").append(1 + random.nextInt(5));
+        }
+        rows.append('\n');
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder rows) throws SQLException {
+        byte[] bytes = rows.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        rows.setLength(0);
+    }
+
+    private void executeAndCommit(String... statements) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to prepare " + SESSION_ACTION_TABLE_NAME, e);
+        }
+    }
+
+    /**
+     * Picks the user of every generated row.
+     */
+    public interface UserIdDistribution {
+
+        long nextUserId(SplittableRandom random);
+
+        static UserIdDistribution uniform(int userCount) {
+            return random -> 1 + random.nextInt(userCount);
+        }
+
+        /**
+         * User 1 is the hottest, user k gets a share proportional to 1 / k^exponent.
+         */
+        static UserIdDistribution zipf(int userCount, double exponent) {
+            return new ZipfUserIdDistribution(userCount, exponent);
+        }
+    }
+
+    /**
+     * Rejection-inversion sampling (Hörmann and Derflinger), constant memory and time for any user count.
+     */
+    private static class ZipfUserIdDistribution implements UserIdDistribution {
+
+        private final int userCount;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralUserCount;
+        private final double s;
+
+        private ZipfUserIdDistribution(int userCount, double exponent) {
+            if (exponent <= 0) {
+                throw new IllegalArgumentException("Zipf exponent has to be positive: " + exponent);
+            }
+            this.userCount = userCount;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1d;
+            this.hIntegralUserCount = hIntegral(userCount + 0.5);
+            this.s = 2d - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        @Override
+        public long nextUserId(SplittableRandom random) {
+            while (true) {
+                double u = hIntegralUserCount + random.nextDouble() * (hIntegralX1 - hIntegralUserCount);
+                double x = hIntegralInverse(u);
+                long k = Math.max(1, Math.min(userCount, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return expm1OverX((1d - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1d, x * (1d - exponent));
+            return Math.exp(log1pOverX(t) * x);
+        }
+
+        private static double log1pOverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1d - x * (0.5 - x * (1d / 3d - 0.25 * x));
+        }
+
+        private static double expm1OverX(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1d + x * 0.5 * (1d + x / 3d * (1d + 0.25 * x));
+        }
+    }
+}
@@ -6,7 +6,14 @@ import org.springframework.transaction.support.TransactionTemplate;
 import spring.batch.actionCalculation.constants.CommonConstants;
 import spring.batch.actionCalculation.model.SessionAction;
 
+import static spring.batch.actionCalculation.constants.CommonConstants.MULTI_TYPE;
+import static spring.batch.actionCalculation.constants.CommonConstants.PLUS_TYPE;
+import static spring.batch.actionCalculation.constants.CommonConstants.SCORE_AGGREGATE_NAME;
+import static spring.batch.actionCalculation.constants.CommonConstants.SCORE_UPDATE_AGGREGATE_NAME;
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_DEAD_LETTER_TABLE_NAME;
 import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_TABLE_NAME;
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_LANE_MARK_TABLE_NAME;
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_PARTIAL_TABLE_NAME;
 import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_TABLE_NAME;
 
 public class SourceDatabaseUtils {
@@ -25,6 +32,9 @@ public class SourceDatabaseUtils {
                     "action_type varchar(36) not null," +
                     "amount numeric(10,2) not null" +
                     ")");
+            // Lets partitions read their user_id range in id order without scanning the whole table
+            jdbcTemplate.update("create index if not exists " + SESSION_ACTION_TABLE_NAME + "_user_id_id_idx on " +
+                    SESSION_ACTION_TABLE_NAME + " (user_id, id)");
             return null;
         });
         transactionTemplate.execute(status -> {
@@ -34,19 +44,147 @@ public class SourceDatabaseUtils {
     }
 
     public static void createUserScoreTable(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
-        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
-        transactionTemplate.execute(status->{
+        createUserScoreTableIfNotExists(jdbcTemplate, transactionManager);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("truncate table " + USER_SCORE_TABLE_NAME);
+            return null; // Explicitly commit
+        });
+
+    }
+
+    /*
+    * Keeps the existing scores, incremental runs apply their updates on top of them.
+    * Scores are stored unrounded as double precision, the type every job computes them in: rounding on every
+    * upsert would make a score depend on how the actions of a user were folded into chunks, so the jobs would
+    * disagree. A table from before keeps its scores and only changes the column type.
+     */
+    public static void createUserScoreTableIfNotExists(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
+        new TransactionTemplate(transactionManager).execute(status->{
             jdbcTemplate.update("create table if not exists " + USER_SCORE_TABLE_NAME + " (" +
                     "user_id int not null unique," +
-                    "score numeric(10,2) not null" +
+                    "score double precision not null" +
                     ")");
+            String scoreType = jdbcTemplate.queryForObject("select data_type from information_schema.columns " +
+                    "where table_schema = current_schema() and table_name = ? and column_name = 'score'", String.class, USER_SCORE_TABLE_NAME);
+            if (!"double precision".equals(scoreType)) {
+                jdbcTemplate.update("alter table " + USER_SCORE_TABLE_NAME + " alter column score type double precision");
+            }
             return null;
         });
-        transactionTemplate.execute(status -> {
-            jdbcTemplate.update("truncate table " + USER_SCORE_TABLE_NAME);
-            return null; // Explicitly commit
+    }
+
+    /*
+    * Folded updates of every partition of a file run, {multiplier, addend} per user, until they are merged into user_score
+     */
+    public static void createUserScorePartialTable(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
+        new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("create table if not exists " + USER_SCORE_PARTIAL_TABLE_NAME + " (" +
+                    "job_instance_id bigint not null," +
+                    "partition_index int not null," +
+                    "user_id bigint not null," +
+                    "multiplier double precision not null," +
+                    "addend double precision not null," +
+                    "primary key (job_instance_id, partition_index, user_id)" +
+                    ")");
+            return null;
         });
+    }
 
+    /*
+    * Highest session action id every lane of a lane dispatched run committed
+     */
+    public static void createUserScoreLaneMarkTable(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
+        new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("create table if not exists " + USER_SCORE_LANE_MARK_TABLE_NAME + " (" +
+                    "job_instance_id bigint not null," +
+                    "lane integer not null," +
+                    "last_id bigint not null," +
+                    "primary key (job_instance_id, lane)" +
+                    ")");
+            return null;
+        });
+    }
+
+    /*
+    * Skipped session actions, kept across runs
+     */
+    public static void createDeadLetterTable(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
+        new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("create table if not exists " + SESSION_ACTION_DEAD_LETTER_TABLE_NAME + " (" +
+                    "id bigint not null," +
+                    "user_id bigint not null," +
+                    "action_type varchar(36)," +
+                    "amount numeric(10,2)," +
+                    "job_execution_id bigint," +
+                    "step_name varchar(100)," +
+                    "reason text," +
+                    "created_at timestamp not null default now()" +
+                    ")");
+            return null;
+        });
+    }
+
+    /*
+    * Ordered aggregate folding the session actions of a user into one update {multiply, add}, the same
+    * composition as UserScoreUpdate.andThen. Called as session_action_score(action_type, amount order by id),
+    * rows of other action types have to be filtered out before.
+     */
+    public static void createScoreAggregate(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
+        new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("create or replace function " + SCORE_AGGREGATE_NAME + "_step(" +
+                    "state double precision[], action_type varchar, amount double precision) " +
+                    "returns double precision[] language sql immutable parallel safe as $$ " +
+                    "select case action_type " +
+                    "when '" + PLUS_TYPE + "' then array[state[1], state[2] + amount] " +
+                    "when '" + MULTI_TYPE + "' then array[state[1] * amount, state[2] * amount] " +
+                    "end $$");
+            jdbcTemplate.update("create or replace aggregate " + SCORE_AGGREGATE_NAME + "(varchar, double precision) (" +
+                    "sfunc = " + SCORE_AGGREGATE_NAME + "_step," +
+                    "stype = double precision[]," +
+                    "initcond = '{1,0}'" +
+                    ")");
+            return null;
+        });
+    }
+
+    /*
+    * Ordered aggregate composing updates {multiply, add} into one, the same composition as UserScoreUpdate.andThen.
+    * Called as user_score_update_compose(multiplier, addend order by ...).
+     */
+    public static void createScoreUpdateAggregate(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
+        new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("create or replace function " + SCORE_UPDATE_AGGREGATE_NAME + "_step(" +
+                    "state double precision[], multiplier double precision, addend double precision) " +
+                    "returns double precision[] language sql immutable parallel safe as $$ " +
+                    "select array[state[1] * multiplier, state[2] * multiplier + addend] $$");
+            jdbcTemplate.update("create or replace aggregate " + SCORE_UPDATE_AGGREGATE_NAME + "(double precision, double precision) (" +
+                    "sfunc = " + SCORE_UPDATE_AGGREGATE_NAME + "_step," +
+                    "stype = double precision[]," +
+                    "initcond = '{1,0}'" +
+                    ")");
+            return null;
+        });
+    }
+
+    /*
+    * Queue table of the Spring Integration JDBC channel message store, as in its schema-postgresql.sql
+     */
+    public static void createChannelMessageTable(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager){
+        new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.update("create sequence if not exists int_message_seq start with 1 increment by 1 no cycle");
+            jdbcTemplate.update("create table if not exists int_channel_message (" +
+                    "message_id char(36) not null," +
+                    "group_key char(36) not null," +
+                    "created_date bigint not null," +
+                    "message_priority bigint," +
+                    "message_sequence bigint not null default nextval('int_message_seq')," +
+                    "message_bytes bytea," +
+                    "region varchar(100) not null," +
+                    "constraint int_channel_message_pk primary key (region, group_key, created_date, message_sequence)" +
+                    ")");
+            jdbcTemplate.update("create index if not exists int_channel_msg_delete_idx on int_channel_message (region, group_key, message_id)");
+            return null;
+        });
     }
 
     public static void insertSessionAction(JdbcTemplate jdbcTemplate, SessionAction sessionAction, String tableName){
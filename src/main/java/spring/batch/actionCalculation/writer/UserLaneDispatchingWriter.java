@@ -0,0 +1,235 @@
+package spring.batch.actionCalculation.writer;
+
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamWriter;
+import org.springframework.jdbc.support.JdbcUtils;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_LANE_MARK_TABLE_NAME;
+
+/**
+ * Routes the session actions of a chunk to lanes by user id hash. Every lane is owned by a single worker with its
+ * own connection, so lanes write disjoint sets of users concurrently without contending for the same rows, and
+ * the actions of a user always go through the same lane in id order.
+ * <p>
+ * The lane connections are not part of the step transaction, so a lane can commit while another lane or the step
+ * transaction fails. To keep a replay from applying an action twice, every lane commits its updates together with
+ * the highest session action id it applied, in user_score_lane_mark per job instance. Actions reach the writer in
+ * id order, so a lane holds exactly the actions up to its mark; when a restart reads a chunk again, every lane
+ * skips the actions up to its mark and applies the rest, whatever the chunk boundaries are.
+ * <p>
+ * The marks are kept in memory between chunks and only read when the writer opens. That relies on a failed chunk
+ * failing the step, so the step must not retry chunks.
+ */
+public class UserLaneDispatchingWriter implements ItemStreamWriter<SessionAction> {
+
+    private static final String LANE_MARKS_QUERY = "select lane, last_id from " + USER_SCORE_LANE_MARK_TABLE_NAME +
+            " where job_instance_id = ?";
+    // The scores of older runs were rebuilt since, their marks are never replayed
+    private static final String DELETE_STALE_LANE_MARKS_QUERY = "delete from " + USER_SCORE_LANE_MARK_TABLE_NAME +
+            " where job_instance_id <> ?";
+    private static final String UPDATE_LANE_MARK_QUERY = "insert into " + USER_SCORE_LANE_MARK_TABLE_NAME +
+            " (job_instance_id, lane, last_id) values (?, ?, ?) " +
+            "on conflict (job_instance_id, lane) do update set last_id = excluded.last_id";
+
+    private final DataSource dataSource;
+    private final ItemProcessor<SessionAction, UserScoreUpdate> sessionActionProcessor;
+    private final long jobInstanceId;
+    private final int laneCount;
+    private final ThreadFactory laneThreadFactory;
+
+    private ExecutorService[] lanes;
+    private long[] laneMarks;
+
+    public UserLaneDispatchingWriter(DataSource dataSource, ItemProcessor<SessionAction, UserScoreUpdate> sessionActionProcessor,
+                                     long jobInstanceId, int laneCount, ThreadFactory laneThreadFactory) {
+        this.dataSource = dataSource;
+        this.sessionActionProcessor = sessionActionProcessor;
+        this.jobInstanceId = jobInstanceId;
+        this.laneCount = laneCount;
+        this.laneThreadFactory = laneThreadFactory;
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        laneMarks = readLaneMarks();
+        lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(laneThreadFactory);
+        }
+    }
+
+    @Override
+    public void write(Chunk<? extends SessionAction> chunk) throws Exception {
+        List<List<UserScoreUpdate>> laneUpdates = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            laneUpdates.add(new ArrayList<>());
+        }
+        long[] lastIds = laneMarks.clone();
+        for (SessionAction sessionAction : chunk) {
+            int lane = laneOf(sessionAction.userId());
+            if (sessionAction.id() <= lastIds[lane]) {
+                // Applied by the lane before the restart
+                continue;
+            }
+            UserScoreUpdate update = sessionActionProcessor.process(sessionAction);
+            if (update != null) {
+                laneUpdates.get(lane).add(update);
+            }
+            lastIds[lane] = sessionAction.id();
+        }
+
+        List<Future<Connection>> pendingLanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            if (lastIds[i] != laneMarks[i]) {
+                List<UserScoreUpdate> updates = UserScoreUpdate.foldByUser(laneUpdates.get(i));
+                // Rows are locked in user_id order, the same order every other writer uses
+                updates.sort(Comparator.comparingLong(UserScoreUpdate::userId));
+                int lane = i;
+                long lastId = lastIds[i];
+                pendingLanes.add(lanes[i].submit(() -> writeLane(lane, updates, lastId)));
+            }
+        }
+        completeLanes(pendingLanes);
+        laneMarks = lastIds;
+    }
+
+    @Override
+    public void close() {
+        if (lanes != null) {
+            for (ExecutorService lane : lanes) {
+                lane.shutdownNow();
+            }
+            lanes = null;
+        }
+    }
+
+    private int laneOf(long userId) {
+        return Math.floorMod(Long.hashCode(userId), laneCount);
+    }
+
+    private long[] readLaneMarks() {
+        long[] marks = new long[laneCount];
+        Arrays.fill(marks, Long.MIN_VALUE);
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(LANE_MARKS_QUERY)) {
+                preparedStatement.setLong(1, jobInstanceId);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        marks[resultSet.getInt("lane")] = resultSet.getLong("last_id");
+                    }
+                }
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement(DELETE_STALE_LANE_MARKS_QUERY)) {
+                preparedStatement.setLong(1, jobInstanceId);
+                preparedStatement.executeUpdate();
+            }
+            connection.commit();
+            return marks;
+        } catch (SQLException e) {
+            if (connection != null) {
+                rollbackQuietly(connection);
+            }
+            throw new ItemStreamException("Failed to read the user lane marks of job instance " + jobInstanceId, e);
+        } finally {
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    /*
+    * Writes the lane and its mark without committing, the connection is handed back to commit once all lanes
+    * succeeded
+     */
+    private Connection writeLane(int lane, List<UserScoreUpdate> updates, long lastId) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(UserScoreUpdate.UPDATE_USER_SCORE_QUERY)) {
+                for (UserScoreUpdate update : updates) {
+                    UserScoreUpdate.UPDATE_USER_SCORE_PARAMETER_SETTER.setValues(update, preparedStatement);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement(UPDATE_LANE_MARK_QUERY)) {
+                preparedStatement.setLong(1, jobInstanceId);
+                preparedStatement.setInt(2, lane);
+                preparedStatement.setLong(3, lastId);
+                preparedStatement.executeUpdate();
+            }
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            rollbackAndClose(connection);
+            throw e;
+        }
+    }
+
+    private static void completeLanes(List<Future<Connection>> pendingLanes) throws Exception {
+        List<Connection> writtenLanes = new ArrayList<>(pendingLanes.size());
+        Exception failure = null;
+        for (Future<Connection> pendingLane : pendingLanes) {
+            try {
+                writtenLanes.add(pendingLane.get());
+            } catch (ExecutionException e) {
+                failure = failure == null ? asException(e.getCause()) : failure;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure == null ? e : failure;
+            }
+        }
+
+        if (failure != null) {
+            writtenLanes.forEach(UserLaneDispatchingWriter::rollbackAndClose);
+            throw failure;
+        }
+        try {
+            for (Connection connection : writtenLanes) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            // The lanes that committed recorded their marks, a restart skips just their actions
+            throw new ItemStreamException("Failed to commit user lanes, restart the step to apply the rest of the chunk", e);
+        } finally {
+            writtenLanes.forEach(JdbcUtils::closeConnection);
+        }
+    }
+
+    private static void rollbackAndClose(Connection connection) {
+        rollbackQuietly(connection);
+        JdbcUtils.closeConnection(connection);
+    }
+
+    private static void rollbackQuietly(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException ignored) {
+            // The original failure is the one worth reporting
+        }
+    }
+
+    private static Exception asException(Throwable throwable) {
+        return throwable instanceof Exception exception ? exception : new ItemStreamException(throwable);
+    }
+}
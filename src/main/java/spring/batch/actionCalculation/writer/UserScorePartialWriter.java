@@ -0,0 +1,49 @@
+package spring.batch.actionCalculation.writer;
+
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+
+import javax.sql.DataSource;
+import java.util.Comparator;
+import java.util.List;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_PARTIAL_TABLE_NAME;
+
+/**
+ * Folds the updates of a chunk per user and composes them onto the partial update of the user in this partition,
+ * instead of applying them to user_score. The partials of all partitions are merged in partition order once every
+ * partition finished. Runs in the step transaction.
+ */
+public class UserScorePartialWriter implements ItemWriter<UserScoreUpdate> {
+
+    private static final String UPSERT_PARTIAL_QUERY = "insert into " + USER_SCORE_PARTIAL_TABLE_NAME +
+            " (job_instance_id, partition_index, user_id, multiplier, addend) values (?, ?, ?, ?, ?) " +
+            "on conflict (job_instance_id, partition_index, user_id) do update set " +
+            "multiplier = " + USER_SCORE_PARTIAL_TABLE_NAME + ".multiplier * excluded.multiplier, " +
+            "addend = " + USER_SCORE_PARTIAL_TABLE_NAME + ".addend * excluded.multiplier + excluded.addend";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long jobInstanceId;
+    private final int partitionIndex;
+
+    public UserScorePartialWriter(DataSource dataSource, long jobInstanceId, int partitionIndex) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jobInstanceId = jobInstanceId;
+        this.partitionIndex = partitionIndex;
+    }
+
+    @Override
+    public void write(Chunk<? extends UserScoreUpdate> chunk) {
+        List<UserScoreUpdate> updates = UserScoreUpdate.foldByUser(chunk);
+        updates.sort(Comparator.comparingLong(UserScoreUpdate::userId));
+        jdbcTemplate.batchUpdate(UPSERT_PARTIAL_QUERY, updates, updates.size(), (ps, update) -> {
+            ps.setLong(1, jobInstanceId);
+            ps.setInt(2, partitionIndex);
+            ps.setLong(3, update.userId());
+            ps.setDouble(4, update.multiply());
+            ps.setDouble(5, update.add());
+        });
+    }
+}
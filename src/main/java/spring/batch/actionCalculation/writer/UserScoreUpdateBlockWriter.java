@@ -0,0 +1,60 @@
+package spring.batch.actionCalculation.writer;
+
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+import spring.batch.actionCalculation.model.UserScoreUpdateBlock;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+/**
+ * Folds the blocks of a chunk into one upsert per user and binds them as primitives in a single JDBC batch.
+ * Runs on the connection bound to the step transaction.
+ */
+public class UserScoreUpdateBlockWriter implements ItemWriter<UserScoreUpdateBlock> {
+
+    private final DataSource dataSource;
+
+    public UserScoreUpdateBlockWriter(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void write(Chunk<? extends UserScoreUpdateBlock> chunk) throws Exception {
+        UserScoreUpdateBlock updates = fold(chunk);
+        if (updates == null || updates.size() == 0) {
+            return;
+        }
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(UserScoreUpdate.UPDATE_USER_SCORE_QUERY)) {
+            for (int i = 0; i < updates.size(); i++) {
+                preparedStatement.setLong(1, updates.userId(i));
+                preparedStatement.setDouble(2, updates.add(i));
+                preparedStatement.setDouble(3, updates.multiply(i));
+                preparedStatement.setDouble(4, updates.add(i));
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private static UserScoreUpdateBlock fold(Chunk<? extends UserScoreUpdateBlock> chunk) {
+        if (chunk.size() <= 1) {
+            return chunk.isEmpty() ? null : chunk.getItems().get(0);
+        }
+        int userCount = 0;
+        for (UserScoreUpdateBlock block : chunk) {
+            userCount += block.size();
+        }
+        UserScoreUpdateBlock updates = new UserScoreUpdateBlock(userCount);
+        for (UserScoreUpdateBlock block : chunk) {
+            updates.applyAll(block);
+        }
+        return updates;
+    }
+}
@@ -0,0 +1,83 @@
+package spring.batch.actionCalculation.writer;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_STAGING_TABLE_NAME;
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_TABLE_NAME;
+
+/**
+ * Streams a chunk into a temporary staging table with COPY and applies it to user_score with a single
+ * set based upsert. Every user may appear only once per chunk, so put this writer behind
+ * {@link UserScoreUpdateFoldingWriter}, which also keeps the per-user update order.
+ * Runs on the connection bound to the step transaction, the staging rows are dropped on commit.
+ */
+public class UserScoreUpdateCopyWriter implements ItemWriter<UserScoreUpdate> {
+
+    private static final String CREATE_STAGING_TABLE_QUERY = "create temporary table if not exists " + USER_SCORE_STAGING_TABLE_NAME + " (" +
+            "user_id bigint primary key," +
+            "score_add double precision not null," +
+            "score_multiply double precision not null" +
+            ") on commit delete rows";
+
+    private static final String COPY_QUERY = "copy " + USER_SCORE_STAGING_TABLE_NAME + " (user_id, score_add, score_multiply) from stdin";
+
+    // A missing row starts from 0, so it is inserted with the add part, the same way UPDATE_USER_SCORE_QUERY does.
+    // Rows are locked in user_id order to keep concurrent writers from deadlocking each other.
+    private static final String MERGE_QUERY = "insert into " + USER_SCORE_TABLE_NAME + " (user_id, score) " +
+            "select user_id, score_add from " + USER_SCORE_STAGING_TABLE_NAME + " order by user_id " +
+            "on conflict (user_id) do update set score = " + USER_SCORE_TABLE_NAME + ".score * " +
+            "(select staging.score_multiply from " + USER_SCORE_STAGING_TABLE_NAME + " staging where staging.user_id = excluded.user_id) " +
+            "+ excluded.score";
+
+    private final DataSource dataSource;
+
+    public UserScoreUpdateCopyWriter(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void write(Chunk<? extends UserScoreUpdate> chunk) throws Exception {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING_TABLE_QUERY);
+
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_QUERY);
+            try {
+                byte[] rows = toCopyText(chunk).getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(rows, 0, rows.length);
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+
+            statement.executeUpdate(MERGE_QUERY);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private static String toCopyText(Chunk<? extends UserScoreUpdate> chunk) {
+        StringBuilder rows = new StringBuilder(chunk.size() * 32);
+        for (UserScoreUpdate update : chunk) {
+            rows.append(update.userId()).append('\t')
+                    .append(update.add()).append('\t')
+                    .append(update.multiply()).append('\n');
+        }
+        return rows.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package spring.batch.actionCalculation.writer;
+
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemStreamWriter;
+import org.springframework.batch.item.ItemWriter;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Folds all updates of the same user within a chunk into a single (multiply, add) pair before handing
+ * the chunk to the delegate, so the delegate issues one upsert per user instead of one per session action.
+ * Updates have to arrive in session action id order, which is the order the readers supply them in.
+ * user_score keeps scores unrounded, so a folded update gives the score of the single updates up to floating
+ * point error, wherever the chunk boundaries fall.
+ * The folded updates are written in user_id order, the order every other writer locks rows in, so concurrent
+ * chunks wait for each other instead of deadlocking.
+ */
+public class UserScoreUpdateFoldingWriter implements ItemStreamWriter<UserScoreUpdate> {
+
+    private final ItemWriter<UserScoreUpdate> delegate;
+
+    public UserScoreUpdateFoldingWriter(ItemWriter<UserScoreUpdate> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(Chunk<? extends UserScoreUpdate> chunk) throws Exception {
+        List<UserScoreUpdate> updates = UserScoreUpdate.foldByUser(chunk);
+        updates.sort(Comparator.comparingLong(UserScoreUpdate::userId));
+        delegate.write(new Chunk<>(updates));
+    }
+
+    @Override
+    public void open(ExecutionContext executionContext) {
+        if (delegate instanceof ItemStream itemStream) {
+            itemStream.open(executionContext);
+        }
+    }
+
+    @Override
+    public void update(ExecutionContext executionContext) {
+        if (delegate instanceof ItemStream itemStream) {
+            itemStream.update(executionContext);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (delegate instanceof ItemStream itemStream) {
+            itemStream.close();
+        }
+    }
+}
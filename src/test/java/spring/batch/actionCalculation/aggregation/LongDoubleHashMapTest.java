@@ -0,0 +1,47 @@
+package spring.batch.actionCalculation.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongDoubleHashMapTest {
+
+    @Test
+    void behavesLikeHashMapWhileGrowing() {
+        LongDoubleHashMap map = new LongDoubleHashMap(2);
+        Map<Long, Double> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(20_000) - 10_000;
+            double value = random.nextDouble();
+            map.put(key, value);
+            expected.put(key, value);
+        }
+
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals(value, map.get(key, -1d)));
+        Map<Long, Double> iterated = new HashMap<>();
+        map.forEach(iterated::put);
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    void keepsTheFreeSlotKeyAsRegularKey() {
+        LongDoubleHashMap map = new LongDoubleHashMap(16);
+        assertFalse(map.containsKey(0L));
+        assertEquals(-1d, map.get(0L, -1d));
+
+        map.put(0L, 3.5d);
+        map.put(0L, 4.5d);
+
+        assertTrue(map.containsKey(0L));
+        assertEquals(4.5d, map.get(0L, -1d));
+        assertEquals(1, map.size());
+    }
+}
@@ -0,0 +1,70 @@
+package spring.batch.actionCalculation.benchmark;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.springframework.jdbc.core.JdbcTemplate;
+import spring.batch.actionCalculation.constants.CommonConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_TABLE_NAME;
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_TABLE_NAME;
+
+/**
+ * Embedded H2 database in Postgres compatibility mode with the session_action and user_score tables.
+ */
+class BenchmarkDatabase implements AutoCloseable {
+
+    /*
+    * H2 does not support "on conflict do update", this merge takes the same parameters as
+    * UserScoreUpdate.UPDATE_USER_SCORE_QUERY so the same parameter setter binds it
+     */
+    static final String UPDATE_USER_SCORE_QUERY = "merge into " + USER_SCORE_TABLE_NAME + " as user_score using (values (" +
+            "cast(? as bigint), cast(? as double precision), cast(? as double precision), cast(? as double precision)" +
+            ")) as update_values(user_id, initial_score, score_multiply, score_add) on user_score.user_id = update_values.user_id " +
+            "when matched then update set score = user_score.score * update_values.score_multiply + update_values.score_add " +
+            "when not matched then insert (user_id, score) values (update_values.user_id, update_values.initial_score)";
+
+    private final JdbcConnectionPool dataSource;
+    private final JdbcTemplate jdbcTemplate;
+
+    BenchmarkDatabase(String name, int maxConnections) {
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        dataSource.setMaxConnections(maxConnections);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table if not exists " + SESSION_ACTION_TABLE_NAME + " (" +
+                "id bigint primary key, user_id int not null, action_type varchar(36) not null, amount numeric(10,2) not null)");
+        jdbcTemplate.execute("create index if not exists " + SESSION_ACTION_TABLE_NAME + "_user_id_id_idx on " +
+                SESSION_ACTION_TABLE_NAME + " (user_id, id)");
+        jdbcTemplate.execute("create table if not exists " + USER_SCORE_TABLE_NAME + " (" +
+                "user_id int not null unique, score double precision not null)");
+    }
+
+    void generateSessionActions(int recordCount, int userCount) {
+        Random random = new Random(42);
+        jdbcTemplate.execute("truncate table " + SESSION_ACTION_TABLE_NAME);
+        List<Object[]> rows = new ArrayList<>(recordCount);
+        for (int id = 1; id <= recordCount; id++) {
+            boolean plus = random.nextBoolean();
+            rows.add(new Object[]{id, 1 + random.nextInt(userCount),
+                    plus ? CommonConstants.PLUS_TYPE : CommonConstants.MULTI_TYPE,
+                    plus ? 1 + random.nextInt(3) : 1 + (1 + random.nextInt(5)) / 10d});
+        }
+        jdbcTemplate.batchUpdate("insert into " + SESSION_ACTION_TABLE_NAME + " (id, user_id, action_type, amount) values (?, ?, ?, ?)", rows);
+    }
+
+    void truncateUserScores() {
+        jdbcTemplate.execute("truncate table " + USER_SCORE_TABLE_NAME);
+    }
+
+    JdbcConnectionPool getDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public void close() {
+        jdbcTemplate.execute("shutdown");
+        dataSource.dispose();
+    }
+}
@@ -0,0 +1,152 @@
+package spring.batch.actionCalculation.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.item.database.JdbcBatchItemWriter;
+import org.springframework.batch.item.database.JdbcPagingItemReader;
+import org.springframework.batch.item.database.builder.JdbcBatchItemWriterBuilder;
+import org.springframework.batch.item.database.builder.JdbcPagingItemReaderBuilder;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import spring.batch.actionCalculation.config.ActionCalculationConfig;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+import spring.batch.actionCalculation.writer.UserScoreUpdateFoldingWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full read, process and write cycle over all session actions, chunk by chunk in its own transaction like a
+ * chunk oriented step. Threads split the users into ranges like the partitioned job does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ChunkCycleBenchmark {
+
+    private static final int RECORD_COUNT = 20_000;
+    private static final int USER_COUNT = 1_000;
+
+    @Param({"5", "100", "1000"})
+    public int chunkSize;
+
+    @Param({"5", "100", "1000"})
+    public int pageSize;
+
+    @Param({"1", "4"})
+    public int threadCount;
+
+    private final ItemProcessor<SessionAction, UserScoreUpdate> sessionActionProcessor = ActionCalculationConfig.getSessionActionProcessor();
+
+    private BenchmarkDatabase database;
+    private TransactionTemplate transactionTemplate;
+    private ItemWriter<UserScoreUpdate> userScoreUpdateWriter;
+    private ExecutorService executorService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase("chunkCycleBenchmark", threadCount);
+        database.generateSessionActions(RECORD_COUNT, USER_COUNT);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(database.getDataSource()));
+        JdbcBatchItemWriter<UserScoreUpdate> jdbcBatchItemWriter = new JdbcBatchItemWriterBuilder<UserScoreUpdate>()
+                .dataSource(database.getDataSource())
+                .itemPreparedStatementSetter(UserScoreUpdate.UPDATE_USER_SCORE_PARAMETER_SETTER)
+                .sql(BenchmarkDatabase.UPDATE_USER_SCORE_QUERY)
+                .build();
+        // Done by the container for the reader and writer beans
+        jdbcBatchItemWriter.afterPropertiesSet();
+        userScoreUpdateWriter = new UserScoreUpdateFoldingWriter(jdbcBatchItemWriter);
+        executorService = Executors.newFixedThreadPool(threadCount);
+    }
+
+    @Setup(Level.Invocation)
+    public void truncateUserScores() {
+        database.truncateUserScores();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executorService.shutdownNow();
+        database.close();
+    }
+
+    @Benchmark
+    public long readProcessWrite() throws Exception {
+        int usersPerThread = (USER_COUNT + threadCount - 1) / threadCount;
+        List<Future<Long>> partitions = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            long minUserId = 1L + (long) i * usersPerThread;
+            long maxUserId = minUserId + usersPerThread - 1;
+            partitions.add(executorService.submit(() -> runPartition(minUserId, maxUserId)));
+        }
+        long writeCount = 0;
+        for (Future<Long> partition : partitions) {
+            writeCount += partition.get();
+        }
+        return writeCount;
+    }
+
+    private long runPartition(long minUserId, long maxUserId) throws Exception {
+        JdbcPagingItemReader<SessionAction> sessionActionReader = new JdbcPagingItemReaderBuilder<SessionAction>()
+                .name("sessionActionReader")
+                .dataSource(database.getDataSource())
+                .queryProvider(SessionAction.selectPartitionOfSessionActionsProvider(minUserId, maxUserId))
+                .rowMapper(SessionAction.getSessionActionMapper())
+                .pageSize(pageSize)
+                .saveState(false)
+                .build();
+        sessionActionReader.afterPropertiesSet();
+        sessionActionReader.open(new ExecutionContext());
+        try {
+            long writeCount = 0;
+            int chunkWriteCount;
+            do {
+                chunkWriteCount = transactionTemplate.execute(status -> runChunk(sessionActionReader));
+                writeCount += chunkWriteCount;
+            } while (chunkWriteCount == chunkSize);
+            return writeCount;
+        } finally {
+            sessionActionReader.close();
+        }
+    }
+
+    private int runChunk(ItemStreamReader<SessionAction> sessionActionReader) {
+        try {
+            Chunk<UserScoreUpdate> chunk = new Chunk<>();
+            SessionAction sessionAction;
+            while (chunk.size() < chunkSize && (sessionAction = sessionActionReader.read()) != null) {
+                chunk.add(sessionActionProcessor.process(sessionAction));
+            }
+            if (!chunk.isEmpty()) {
+                userScoreUpdateWriter.write(chunk);
+            }
+            return chunk.size();
+        } catch (Exception e) {
+            throw new IllegalStateException("Chunk failed", e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package spring.batch.actionCalculation.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.jdbc.core.RowMapper;
+import spring.batch.actionCalculation.config.ActionCalculationConfig;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_TABLE_NAME;
+
+/**
+ * Per item cost of the row mapper, the processor and the upsert parameter setter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemPipelineBenchmark {
+
+    private static final int ITEM_COUNT = 10_000;
+
+    private final RowMapper<SessionAction> sessionActionMapper = SessionAction.getSessionActionMapper();
+    private final ItemProcessor<SessionAction, UserScoreUpdate> sessionActionProcessor = ActionCalculationConfig.getSessionActionProcessor();
+
+    private BenchmarkDatabase database;
+    private Connection connection;
+    private PreparedStatement selectStatement;
+    private PreparedStatement upsertStatement;
+    private List<SessionAction> sessionActions;
+    private List<UserScoreUpdate> userScoreUpdates;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase("itemPipelineBenchmark", 1);
+        database.generateSessionActions(ITEM_COUNT, 100);
+        connection = database.getDataSource().getConnection();
+        selectStatement = connection.prepareStatement("select " + SessionAction.SESSION_ACTION_COLUMNS + " from " + SESSION_ACTION_TABLE_NAME + " order by id");
+        upsertStatement = connection.prepareStatement(BenchmarkDatabase.UPDATE_USER_SCORE_QUERY);
+
+        sessionActions = new ArrayList<>(ITEM_COUNT);
+        userScoreUpdates = new ArrayList<>(ITEM_COUNT);
+        try (ResultSet resultSet = selectStatement.executeQuery()) {
+            while (resultSet.next()) {
+                SessionAction sessionAction = sessionActionMapper.mapRow(resultSet, resultSet.getRow());
+                sessionActions.add(sessionAction);
+                userScoreUpdates.add(sessionActionProcessor.process(sessionAction));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        upsertStatement.close();
+        selectStatement.close();
+        connection.close();
+        database.close();
+    }
+
+    /*
+    * Includes iterating the H2 result set, which is a lower bound of what the Postgres driver costs
+     */
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void mapRows(Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = selectStatement.executeQuery()) {
+            int rowNum = 0;
+            while (resultSet.next()) {
+                blackhole.consume(sessionActionMapper.mapRow(resultSet, rowNum++));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void processItems(Blackhole blackhole) throws Exception {
+        for (SessionAction sessionAction : sessionActions) {
+            blackhole.consume(sessionActionProcessor.process(sessionAction));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void bindUpsertParameters() throws SQLException {
+        for (UserScoreUpdate userScoreUpdate : userScoreUpdates) {
+            UserScoreUpdate.UPDATE_USER_SCORE_PARAMETER_SETTER.setValues(userScoreUpdate, upsertStatement);
+            upsertStatement.addBatch();
+        }
+        upsertStatement.clearBatch();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public void foldUpdates(Blackhole blackhole) {
+        blackhole.consume(UserScoreUpdate.foldByUser(userScoreUpdates));
+    }
+}
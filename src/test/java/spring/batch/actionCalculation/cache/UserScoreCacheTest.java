@@ -0,0 +1,59 @@
+package spring.batch.actionCalculation.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static spring.batch.actionCalculation.constants.CommonConstants.USER_SCORE_TABLE_NAME;
+
+class UserScoreCacheTest {
+
+    @Test
+    void staysBoundedAndFollowsTheTable() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:user-score-cache;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("create table " + USER_SCORE_TABLE_NAME + " (user_id int not null unique, score double precision not null)");
+        for (long userId = 1; userId <= 100; userId++) {
+            jdbcTemplate.update("insert into " + USER_SCORE_TABLE_NAME + " values (?, ?)", userId, userId + 0.25);
+        }
+        jdbcTemplate.update("create table BATCH_JOB_EXECUTION (JOB_EXECUTION_ID bigint primary key, END_TIME timestamp)");
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UserScoreCache cache = new UserScoreCache(dataSource, dataSource, Duration.ZERO, meterRegistry, 16, 4);
+
+        Map<Long, Double> scores = cache.getAll(LongStream.rangeClosed(1, 101).toArray());
+        assertEquals(100, scores.size());
+        assertEquals(42.25, scores.get(42L));
+        assertNull(cache.get(101));
+        assertTrue(cache.size() <= 16, "cache holds " + cache.size() + " scores");
+
+        // Served from the cache until the incremental run invalidates the user
+        assertEquals(7.25, cache.get(7));
+        jdbcTemplate.update("update " + USER_SCORE_TABLE_NAME + " set score = 70 where user_id = 7");
+        cache.invalidate(new long[]{7});
+        assertEquals(70, cache.get(7));
+
+        // Misses are not cached while a full run rebuilds the table
+        cache.rebuildStarted();
+        jdbcTemplate.update("update " + USER_SCORE_TABLE_NAME + " set score = score * 2");
+        int sizeDuringRebuild = cache.size();
+        cache.getAll(LongStream.rangeClosed(50, 60).toArray());
+        assertEquals(sizeDuringRebuild, cache.size());
+        cache.rebuildEnded(true);
+        assertEquals(140, cache.get(7));
+        assertEquals(4.5, cache.get(2));
+
+        // A job of another node only shows in the job repository
+        jdbcTemplate.update("update " + USER_SCORE_TABLE_NAME + " set score = 20 where user_id = 2");
+        jdbcTemplate.update("insert into BATCH_JOB_EXECUTION values (1, current_timestamp)");
+        assertEquals(20, cache.get(2));
+        assertTrue(meterRegistry.counter(UserScoreCache.CACHE_COUNTER_NAME, "result", "hit").count() > 0);
+    }
+}
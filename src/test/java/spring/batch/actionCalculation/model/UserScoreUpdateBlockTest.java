@@ -0,0 +1,39 @@
+package spring.batch.actionCalculation.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UserScoreUpdateBlockTest {
+
+    @Test
+    void foldsLikeTheFoldOfUpdateRecords() {
+        List<UserScoreUpdate> updates = List.of(
+                new UserScoreUpdate(3, 2d, 1d),
+                new UserScoreUpdate(0, 0d, 1.5d),
+                new UserScoreUpdate(3, 0d, 1.2d),
+                new UserScoreUpdate(0, 3d, 1d),
+                new UserScoreUpdate(5, 1d, 1d),
+                new UserScoreUpdate(3, 1d, 1d)
+        );
+        UserScoreUpdateBlock first = new UserScoreUpdateBlock(1);
+        UserScoreUpdateBlock second = new UserScoreUpdateBlock(1);
+        for (int i = 0; i < updates.size(); i++) {
+            UserScoreUpdate update = updates.get(i);
+            (i < 3 ? first : second).apply(update.userId(), update.add(), update.multiply());
+        }
+        UserScoreUpdateBlock block = new UserScoreUpdateBlock(2);
+        block.applyAll(first);
+        block.applyAll(second);
+
+        List<UserScoreUpdate> expected = UserScoreUpdate.foldByUser(updates);
+        assertEquals(expected.size(), block.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).userId(), block.userId(i));
+            assertEquals(expected.get(i).add(), block.add(i), 1e-9);
+            assertEquals(expected.get(i).multiply(), block.multiply(i), 1e-9);
+        }
+    }
+}
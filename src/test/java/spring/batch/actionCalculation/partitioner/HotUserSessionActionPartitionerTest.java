@@ -0,0 +1,55 @@
+package spring.batch.actionCalculation.partitioner;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static spring.batch.actionCalculation.constants.CommonConstants.*;
+
+class HotUserSessionActionPartitionerTest {
+
+    @Test
+    void splitsAHotUserIntoIdRangesAfterTheOtherPartitions() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:hot-user-partitioner;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("create table " + SESSION_ACTION_TABLE_NAME + " (id bigint primary key, user_id bigint, action_type varchar(36), amount double precision)");
+        // User 0 holds 60 of the 100 rows, the others 2 each
+        for (long id = 1; id <= 100; id++) {
+            jdbcTemplate.update("insert into " + SESSION_ACTION_TABLE_NAME + " values (?, ?, 'plus', 1)", id, id % 5 == 0 || id <= 50 ? 0 : id);
+        }
+
+        Map<String, ExecutionContext> partitions = new HotUserSessionActionPartitioner(dataSource, 1, null).partition(4);
+        List<ExecutionContext> ordered = partitions.values().stream()
+                .sorted(Comparator.comparingInt(partition -> partition.getInt(PARTITION_INDEX)))
+                .toList();
+
+        List<Long> ids = new ArrayList<>();
+        long largestPartition = 0;
+        for (ExecutionContext partition : ordered) {
+            assertEquals(partitions.size(), partition.getInt(PARTITION_COUNT));
+            String whereClause = partition.getString(PARTITION_WHERE_CLAUSE);
+            if (partition.containsKey(MIN_USER_ID)) {
+                whereClause += " and user_id between " + partition.getLong(MIN_USER_ID) + " and " + partition.getLong(MAX_USER_ID);
+            }
+            List<Long> partitionIds = jdbcTemplate.queryForList("select id from " + SESSION_ACTION_TABLE_NAME +
+                    " where " + whereClause + " order by id", Long.class);
+            largestPartition = Math.max(largestPartition, partitionIds.size());
+            ids.addAll(partitionIds);
+        }
+
+        // Every row is read once, and the slices of the hot user follow each other in id order
+        assertEquals(LongStream.rangeClosed(1, 100).boxed().toList(), ids.stream().sorted().toList());
+        List<Long> hotUserIds = ids.stream().filter(id -> id % 5 == 0 || id <= 50).toList();
+        assertEquals(hotUserIds.stream().sorted().toList(), hotUserIds);
+        assertTrue(largestPartition <= 30, "largest partition holds " + largestPartition + " rows");
+    }
+}
@@ -0,0 +1,44 @@
+package spring.batch.actionCalculation.policy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.retry.RetryContext;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransientDataAccessRetryPolicyTest {
+
+    @Test
+    void retriesDeadlocksAndSerializationFailuresUpToTheLimit() {
+        TransientDataAccessRetryPolicy retryPolicy = new TransientDataAccessRetryPolicy(3);
+        RetryContext context = retryPolicy.open(null);
+        assertTrue(retryPolicy.canRetry(context));
+
+        BatchUpdateException batchFailure = new BatchUpdateException("batch entry 0 failed", "40P01", new int[0]);
+        retryPolicy.registerThrowable(context, new ItemStreamException("write failed", batchFailure));
+        assertTrue(retryPolicy.canRetry(context));
+
+        SQLException firstStatement = new SQLException("batch failed");
+        firstStatement.setNextException(new SQLException("could not serialize access", "40001"));
+        retryPolicy.registerThrowable(context, firstStatement);
+        assertTrue(retryPolicy.canRetry(context));
+
+        retryPolicy.registerThrowable(context, new CannotAcquireLockException("lock timeout"));
+        assertFalse(retryPolicy.canRetry(context));
+    }
+
+    @Test
+    void doesNotRetryOtherFailures() {
+        TransientDataAccessRetryPolicy retryPolicy = new TransientDataAccessRetryPolicy(3);
+        RetryContext context = retryPolicy.open(null);
+        retryPolicy.registerThrowable(context, new DataIntegrityViolationException("duplicate key",
+                new SQLException("duplicate key value", "23505")));
+        assertFalse(retryPolicy.canRetry(context));
+    }
+}
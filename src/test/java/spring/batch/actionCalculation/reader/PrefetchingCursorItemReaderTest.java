@@ -0,0 +1,54 @@
+package spring.batch.actionCalculation.reader;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import spring.batch.actionCalculation.model.SessionAction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static spring.batch.actionCalculation.constants.CommonConstants.SESSION_ACTION_TABLE_NAME;
+
+class PrefetchingCursorItemReaderTest {
+
+    @Test
+    void restartsAfterTheLastItemHandedToTheStep() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:prefetching-reader;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("create table " + SESSION_ACTION_TABLE_NAME + " (id bigint primary key, user_id bigint, action_type varchar(36), amount double precision)");
+        for (long id = 1; id <= 10; id++) {
+            jdbcTemplate.update("insert into " + SESSION_ACTION_TABLE_NAME + " values (?, ?, 'plus', 1)", id, id % 3);
+        }
+
+        ExecutionContext executionContext = new ExecutionContext();
+        PrefetchingCursorItemReader<SessionAction> reader = prefetchingReader(dataSource);
+        reader.open(executionContext);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ids.add(reader.read().id());
+        }
+        reader.update(executionContext);
+        // Items fetched ahead but never handed out are read again
+        reader.read();
+        reader.close();
+
+        reader = prefetchingReader(dataSource);
+        reader.open(executionContext);
+        SessionAction sessionAction;
+        while ((sessionAction = reader.read()) != null) {
+            ids.add(sessionAction.id());
+        }
+        reader.close();
+
+        assertEquals(LongStream.rangeClosed(1, 10).boxed().toList(), ids);
+    }
+
+    private static PrefetchingCursorItemReader<SessionAction> prefetchingReader(DriverManagerDataSource dataSource) {
+        return new PrefetchingCursorItemReader<>(new SessionActionCursorItemReader(dataSource, null, 3),
+                SessionAction::id, 2, Thread::new);
+    }
+}
@@ -0,0 +1,113 @@
+package spring.batch.actionCalculation.reader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.batch.item.ExecutionContext;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.SessionActionFileFormat;
+import spring.batch.actionCalculation.partitioner.SessionActionFilePartitioner;
+
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static spring.batch.actionCalculation.constants.CommonConstants.FILE_END_OFFSET;
+import static spring.batch.actionCalculation.constants.CommonConstants.FILE_START_OFFSET;
+import static spring.batch.actionCalculation.constants.CommonConstants.PARTITION_INDEX;
+
+class SessionActionFileItemReaderTest {
+
+    private static final List<SessionAction> SESSION_ACTIONS = List.of(
+            new SessionAction(1, 7, "plus", 12.34),
+            new SessionAction(2, 123456, "multi", 1.1),
+            new SessionAction(3, 7, "minus", 2d),
+            new SessionAction(4, 8, "plus", 1.5E7),
+            new SessionAction(5, 9, "multi", 0.01),
+            new SessionAction(6, 7, "plus", 99999999.99),
+            new SessionAction(7, 10, "plus", 3d));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void everyCsvLineIsReadByExactlyOnePartition() throws Exception {
+        Path file = directory.resolve("session_action.csv");
+        Files.writeString(file, "id,user_id,action_type,amount\r\n", StandardCharsets.UTF_8);
+        export(file, SessionActionFileFormat.CSV);
+
+        assertEquals(SESSION_ACTIONS, readPartitions(file, SessionActionFileFormat.CSV));
+    }
+
+    @Test
+    void everyBinaryRecordIsReadByExactlyOnePartition() throws Exception {
+        Path file = directory.resolve("session_action.bin");
+        export(file, SessionActionFileFormat.BINARY);
+
+        List<SessionAction> sessionActions = readPartitions(file, SessionActionFileFormat.BINARY);
+        assertEquals("unknown -1", sessionActions.get(2).actionType());
+        assertEquals(SESSION_ACTIONS.stream().map(SessionAction::id).toList(), sessionActions.stream().map(SessionAction::id).toList());
+        assertEquals(SESSION_ACTIONS.get(3), sessionActions.get(3));
+    }
+
+    @Test
+    void restartsAfterTheLastRecordRead() throws Exception {
+        Path file = directory.resolve("session_action.csv");
+        export(file, SessionActionFileFormat.CSV);
+
+        ExecutionContext executionContext = new ExecutionContext();
+        List<SessionAction> sessionActions = new ArrayList<>();
+        SessionActionCsvFileItemReader reader = new SessionActionCsvFileItemReader(file, 0, Long.MAX_VALUE);
+        reader.open(executionContext);
+        sessionActions.add(reader.read());
+        sessionActions.add(reader.read());
+        reader.update(executionContext);
+        reader.close();
+
+        reader = new SessionActionCsvFileItemReader(file, 0, Long.MAX_VALUE);
+        reader.open(executionContext);
+        SessionAction sessionAction;
+        while ((sessionAction = reader.read()) != null) {
+            sessionActions.add(sessionAction);
+        }
+        reader.close();
+        assertEquals(SESSION_ACTIONS, sessionActions);
+    }
+
+    private void export(Path file, SessionActionFileFormat format) throws Exception {
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND))) {
+            for (SessionAction sessionAction : SESSION_ACTIONS) {
+                format.write(sessionAction, output);
+            }
+        }
+    }
+
+    private static List<SessionAction> readPartitions(Path file, SessionActionFileFormat format) throws Exception {
+        // Ranges of a few bytes start and end inside most records
+        Map<String, ExecutionContext> partitions = new SessionActionFilePartitioner(file, format, 1).partition(40);
+        List<SessionAction> sessionActions = new ArrayList<>();
+        for (ExecutionContext partition : partitions.values().stream()
+                .sorted(Comparator.comparingInt(partition -> partition.getInt(PARTITION_INDEX)))
+                .toList()) {
+            long startOffset = partition.getLong(FILE_START_OFFSET);
+            long endOffset = partition.getLong(FILE_END_OFFSET);
+            AbstractSessionActionFileItemReader reader = format == SessionActionFileFormat.CSV
+                    ? new SessionActionCsvFileItemReader(file, startOffset, endOffset)
+                    : new SessionActionBinaryFileItemReader(file, startOffset, endOffset);
+            reader.open(new ExecutionContext());
+            SessionAction sessionAction;
+            while ((sessionAction = reader.read()) != null) {
+                sessionActions.add(sessionAction);
+            }
+            reader.close();
+        }
+        return sessionActions;
+    }
+}
@@ -0,0 +1,35 @@
+package spring.batch.actionCalculation.reader;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.support.ListItemReader;
+import spring.batch.actionCalculation.model.SessionAction;
+import spring.batch.actionCalculation.model.UserSessionActions;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SessionActionGroupingItemReaderTest {
+
+    @Test
+    void readsAllActionsOfAUserAsOneItemInIdOrder() throws Exception {
+        SessionActionGroupingItemReader reader = new SessionActionGroupingItemReader(new ListItemReader<>(List.of(
+                new SessionAction(2, 1, "plus", 1d),
+                new SessionAction(5, 1, "multi", 2d),
+                new SessionAction(1, 3, "plus", 3d),
+                new SessionAction(3, 4, "plus", 4d),
+                new SessionAction(4, 4, "multi", 5d),
+                new SessionAction(6, 4, "plus", 6d)
+        )));
+
+        UserSessionActions first = reader.read();
+        assertEquals(1L, first.userId());
+        assertEquals(List.of(2L, 5L), first.actions().stream().map(SessionAction::id).toList());
+        assertEquals(List.of(1L), reader.read().actions().stream().map(SessionAction::id).toList());
+        UserSessionActions last = reader.read();
+        assertEquals(4L, last.userId());
+        assertEquals(List.of(3L, 4L, 6L), last.actions().stream().map(SessionAction::id).toList());
+        assertNull(reader.read());
+    }
+}
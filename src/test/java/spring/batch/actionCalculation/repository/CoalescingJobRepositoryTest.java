@@ -0,0 +1,36 @@
+package spring.batch.actionCalculation.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class CoalescingJobRepositoryTest {
+
+    @Test
+    void storesTheFirstAndTheLastUpdateOfARunningStep() {
+        JobRepository delegate = mock(JobRepository.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CoalescingJobRepository jobRepository = new CoalescingJobRepository(delegate, meterRegistry, 60_000);
+        StepExecution stepExecution = new StepExecution("step", new JobExecution(1L), 2L);
+        stepExecution.setStatus(BatchStatus.STARTED);
+
+        for (int i = 0; i < 5; i++) {
+            jobRepository.updateExecutionContext(stepExecution);
+            jobRepository.update(stepExecution);
+        }
+        stepExecution.setStatus(BatchStatus.COMPLETED);
+        jobRepository.update(stepExecution);
+
+        verify(delegate, times(5)).updateExecutionContext(stepExecution);
+        verify(delegate, times(2)).update(stepExecution);
+        assertEquals(4, meterRegistry.counter(CoalescingJobRepository.COALESCED_COUNTER_NAME).count());
+    }
+}
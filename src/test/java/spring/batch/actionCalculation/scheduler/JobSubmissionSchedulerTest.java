@@ -0,0 +1,112 @@
+package spring.batch.actionCalculation.scheduler;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JobSubmissionSchedulerTest {
+
+    @Test
+    void runsJobsOneAfterTheOther() throws Exception {
+        Map<Long, JobExecution> jobExecutions = new ConcurrentHashMap<>();
+        AtomicLong jobExecutionIds = new AtomicLong();
+        JobRepository jobRepository = mock(JobRepository.class);
+        when(jobRepository.createJobExecution(anyString(), any())).thenAnswer(invocation -> {
+            long id = jobExecutionIds.incrementAndGet();
+            JobExecution jobExecution = new JobExecution(new JobInstance(id, invocation.getArgument(0)), id, invocation.getArgument(1));
+            jobExecutions.put(id, jobExecution);
+            return jobExecution;
+        });
+        JobExplorer jobExplorer = mock(JobExplorer.class);
+        when(jobExplorer.getJobExecution(anyLong())).thenAnswer(invocation -> jobExecutions.get(invocation.<Long>getArgument(0)));
+
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> runs = new CopyOnWriteArrayList<>();
+        Job first = job("first", runs, release);
+        Job second = job("second", runs, new CountDownLatch(0));
+        // Throttled to one thread like the jobSubmissionScheduler bean
+        SimpleAsyncTaskExecutor jobExecutor = new SimpleAsyncTaskExecutor("job-");
+        jobExecutor.setConcurrencyLimit(1);
+        JobSubmissionScheduler scheduler = new JobSubmissionScheduler(jobRepository, jobExplorer, jobExecutor, 4);
+
+        long firstId = scheduler.submit(first, Map.of(), JobSubmissionSchedulerTest::uniqueJobParameters).submissionId();
+        JobSubmissionStatus waiting = scheduler.submit(second, Map.of("chunkSize", "10"), JobSubmissionSchedulerTest::uniqueJobParameters);
+        // Same job and options as a waiting submission, and as the running one
+        JobSubmissionStatus duplicate = scheduler.submit(second, Map.of("chunkSize", "10"), JobSubmissionSchedulerTest::uniqueJobParameters);
+        JobSubmissionStatus runningDuplicate = scheduler.submit(first, Map.of(), JobSubmissionSchedulerTest::uniqueJobParameters);
+
+        assertEquals("QUEUED", waiting.state());
+        assertEquals(1, waiting.queuePosition());
+        assertEquals(waiting.submissionId(), duplicate.submissionId());
+        assertEquals(firstId, runningDuplicate.submissionId());
+
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!"COMPLETED".equals(scheduler.status(waiting.submissionId()).state()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("COMPLETED", scheduler.status(firstId).state());
+        assertEquals("COMPLETED", scheduler.status(waiting.submissionId()).state());
+        assertEquals(List.of("first started", "first ended", "second started", "second ended"), runs);
+        assertTrue(scheduler.statuses().stream().allMatch(status -> status.queuePosition() == null));
+
+        // Once the queue ran empty, the next submission starts a new run
+        long thirdId = scheduler.submit(job("third", runs, new CountDownLatch(0)), Map.of(), JobSubmissionSchedulerTest::uniqueJobParameters).submissionId();
+        while (!"COMPLETED".equals(scheduler.status(thirdId).state()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("COMPLETED", scheduler.status(thirdId).state());
+    }
+
+    private static JobParameters uniqueJobParameters() {
+        return new JobParametersBuilder().addString("run", UUID.randomUUID().toString()).toJobParameters();
+    }
+
+    private static Job job(String name, List<String> runs, CountDownLatch release) {
+        return new Job() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void execute(JobExecution execution) {
+                execution.setStartTime(LocalDateTime.now());
+                runs.add(name + " started");
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                runs.add(name + " ended");
+                execution.setStatus(BatchStatus.COMPLETED);
+                execution.setEndTime(LocalDateTime.now());
+            }
+        };
+    }
+}
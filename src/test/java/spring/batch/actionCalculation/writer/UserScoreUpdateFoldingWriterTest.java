@@ -0,0 +1,59 @@
+package spring.batch.actionCalculation.writer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.item.Chunk;
+import spring.batch.actionCalculation.model.UserScoreUpdate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UserScoreUpdateFoldingWriterTest {
+
+    @Test
+    void writesOneUpdatePerUserWithTheSameResultAsSequentialUpdates() throws Exception {
+        List<UserScoreUpdate> updates = List.of(
+                new UserScoreUpdate(1, 2d, 1d),
+                new UserScoreUpdate(2, 0d, 1.5d),
+                new UserScoreUpdate(1, 0d, 1.2d),
+                new UserScoreUpdate(2, 3d, 1d),
+                new UserScoreUpdate(1, 1d, 1d)
+        );
+        List<UserScoreUpdate> written = new ArrayList<>();
+        new UserScoreUpdateFoldingWriter(chunk -> written.addAll(chunk.getItems())).write(new Chunk<>(updates));
+
+        assertEquals(2, written.size());
+        assertEquals(1L, written.get(0).userId());
+        assertEquals(2L, written.get(1).userId());
+
+        Map<Long, Double> sequentialScores = applyUpserts(updates, 10d);
+        Map<Long, Double> foldedScores = applyUpserts(written, 10d);
+        assertEquals(sequentialScores.get(1L), foldedScores.get(1L), 1e-9);
+        assertEquals(sequentialScores.get(2L), foldedScores.get(2L), 1e-9);
+    }
+
+    @Test
+    void foldedUpdateInsertsTheSameScoreForNewUsers() {
+        List<UserScoreUpdate> updates = List.of(
+                new UserScoreUpdate(7, 0d, 1.3d),
+                new UserScoreUpdate(7, 2d, 1d),
+                new UserScoreUpdate(7, 0d, 1.1d)
+        );
+        UserScoreUpdate folded = UserScoreUpdate.foldByUser(updates).get(0);
+
+        // A missing row is inserted with the add part, which equals applying the update to a score of 0
+        assertEquals(applyUpserts(updates, null).get(7L), folded.add(), 1e-9);
+    }
+
+    private static Map<Long, Double> applyUpserts(List<UserScoreUpdate> updates, Double initialScore) {
+        Map<Long, Double> scores = new HashMap<>();
+        for (UserScoreUpdate update : updates) {
+            Double score = scores.containsKey(update.userId()) ? scores.get(update.userId()) : initialScore;
+            scores.put(update.userId(), score == null ? update.add() : score * update.multiply() + update.add());
+        }
+        return scores;
+    }
+}